@@ -0,0 +1,103 @@
+package com.app.util;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link Simd.Kernels} on the widest int vectors of the CPU, loaded by {@link Simd} only.
+ * Kept out of the main source folder, as it is the only class that needs
+ * --add-modules jdk.incubator.vector to compile.
+ * <p>
+ * The vector loops unpack the channels of as many pixels as fit in a register at once.
+ * Integer division has no vector instruction, so they multiply and shift instead: n / 9
+ * is (n * 7282) >>> 16 for the gray sums up to 2295, and n / 100 is (n * 5243) >>> 19 for
+ * n below 43699, which covers 255 * {@link Simd#MAX_PERCENT}. The last pixels that do
+ * not fill a vector go through the scalar formulas.
+ */
+final class VectorKernels implements Simd.Kernels {
+
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void scale(int[] in, int[] out, int from, int to, int percent, boolean gray) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            IntVector p = IntVector.fromArray(SPECIES, in, i);
+            IntVector r = p.lanewise(VectorOperators.LSHR, 16).and(0xff);
+            IntVector g = p.lanewise(VectorOperators.LSHR, 8).and(0xff);
+            IntVector b = p.and(0xff);
+            if (gray) {
+                r = r.mul(3).add(g.mul(4)).add(b.mul(2)).mul(7282).lanewise(VectorOperators.LSHR, 16);
+                r = scale(r, percent);
+                g = r;
+                b = r;
+            } else {
+                r = scale(r, percent);
+                g = scale(g, percent);
+                b = scale(b, percent);
+            }
+            p.and(0xff000000).or(r.lanewise(VectorOperators.LSHL, 16)).or(g.lanewise(VectorOperators.LSHL, 8)).or(b)
+                    .intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            int rgb = in[i];
+            if (gray) {
+                int v = Math.min(255, Filters.luma(rgb) * percent / 100);
+                out[i] = (rgb & 0xff000000) | (v << 16) | (v << 8) | v;
+            } else {
+                out[i] = (rgb & 0xff000000) | Math.min(255, ((rgb >> 16) & 0xff) * percent / 100) << 16
+                        | Math.min(255, ((rgb >> 8) & 0xff) * percent / 100) << 8 | Math.min(255, (rgb & 0xff) * percent / 100);
+            }
+        }
+    }
+
+    private static IntVector scale(IntVector c, int percent) {
+        return c.mul(percent * 5243).lanewise(VectorOperators.LSHR, 19).min(255);
+    }
+
+    @Override
+    public void invert(int[] in, int[] out, int from, int to) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            IntVector.fromArray(SPECIES, in, i).lanewise(VectorOperators.XOR, 0xffffff).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            out[i] = in[i] ^ 0xffffff;
+        }
+    }
+
+    @Override
+    public void threshold(int[] in, int[] out, int from, int to, int t) {
+        // avg > t exactly when the channel sum reaches 3 * (t + 1)
+        int limit = 3 * t + 2;
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            IntVector p = IntVector.fromArray(SPECIES, in, i);
+            IntVector sum = p.lanewise(VectorOperators.LSHR, 16).and(0xff)
+                    .add(p.lanewise(VectorOperators.LSHR, 8).and(0xff)).add(p.and(0xff));
+            VectorMask<Integer> dark = sum.compare(VectorOperators.GT, limit);
+            IntVector alpha = p.and(0xff000000);
+            alpha.or(0xffffff).blend(alpha, dark).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            int rgb = in[i];
+            out[i] = Filters.avg(rgb) > t ? rgb & 0xff000000 : (rgb & 0xff000000) + 0xffffff;
+        }
+    }
+
+    @Override
+    public void transparency(int[] in, int[] out, int from, int to, int percent) {
+        int i = from;
+        for (int upper = from + SPECIES.loopBound(to - from); i < upper; i += SPECIES.length()) {
+            IntVector p = IntVector.fromArray(SPECIES, in, i);
+            IntVector a = scale(p.lanewise(VectorOperators.LSHR, 24), percent);
+            p.and(0xffffff).or(a.lanewise(VectorOperators.LSHL, 24)).intoArray(out, i);
+        }
+        for (; i < to; i++) {
+            int rgb = in[i];
+            out[i] = (rgb & 0xffffff) + (Math.min(255, ((rgb >> 24) & 0xff) * percent / 100) << 24);
+        }
+    }
+}
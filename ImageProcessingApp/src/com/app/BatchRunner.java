@@ -0,0 +1,268 @@
+package com.app;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.imageio.ImageIO;
+
+import com.app.util.ArgbRaster;
+import com.app.util.AwtRasters;
+import com.app.util.ImageExport;
+import com.app.util.ImageLoader;
+import com.app.util.MappedRaster;
+import com.app.util.Operation;
+import com.app.util.Operations;
+import com.app.util.Progress;
+import com.app.util.StreamPipeline;
+
+/**
+ * Headless command line runner that applies a list of operations to every image in a directory.
+ * No JavaFX toolkit is started; images are read and written with ImageIO.
+ * <p>
+ * Usage: BatchRunner inputDir outputDir operations [-format png] [-threads N] [-quality 0.75] [-compression 4]
+ * [-stream | -mapped]
+ * <p>
+ * Operations are applied in order, e.g. "gray,linearContrast,otsu" or "brightness:120,invert".
+ * Files are processed concurrently by a fixed pool of worker threads (default: one per core).
+ * -quality sets the JPEG quality (0 to 1) and -compression the PNG deflate level (0 to 9).
+ * -stream runs every file through a {@link StreamPipeline}, a strip of rows at a time, so
+ * images of any height fit in memory; it takes png or tiff output and operations that need
+ * no whole-image statistics or geometry.
+ * -mapped keeps every image in a {@link MappedRaster}, a memory-mapped temporary file, and
+ * runs the operations on it one band of rows at a time, so unlike -stream it also takes
+ * operations that need whole-image statistics, at the cost of disk space for two copies
+ * of the image; it also takes png or tiff output and no geometry operations.
+ */
+public class BatchRunner {
+
+    private static final List<String> IMAGE_EXTENSIONS = Arrays.asList("bmp", "png", "jpg", "jpeg", "gif", "tif", "tiff");
+
+    private final List<Operation> ops;
+    private final File outputDir;
+    private final String format;
+    private final ImageExport export;
+    private final StreamPipeline pipeline;
+    private final boolean mapped;
+
+    /**
+     * @param pipeline runs ops row by row instead of on whole images, or null
+     * @param mapped   runs ops band by band on memory-mapped rasters instead of on whole images
+     */
+    BatchRunner(List<Operation> ops, File outputDir, String format, ImageExport export, StreamPipeline pipeline,
+                boolean mapped) {
+        this.ops = ops;
+        this.outputDir = outputDir;
+        this.format = format;
+        this.export = export;
+        this.pipeline = pipeline;
+        this.mapped = mapped;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 3) {
+            System.err.println("Usage: BatchRunner inputDir outputDir operations [-format png] [-threads N]"
+                    + " [-quality 0.75] [-compression 4] [-stream | -mapped]");
+            System.exit(2);
+        }
+        File inputDir = new File(args[0]);
+        File outputDir = new File(args[1]);
+        String format = "png";
+        int threads = Runtime.getRuntime().availableProcessors();
+        float quality = 0.75f;
+        int compression = 4;
+        boolean stream = false;
+        boolean mapped = false;
+        for (int i = 3; i < args.length; i++) {
+            if (args[i].equals("-stream")) {
+                stream = true;
+            } else if (args[i].equals("-mapped")) {
+                mapped = true;
+            } else if (i + 1 < args.length) {
+                if (args[i].equals("-format")) {
+                    format = args[i + 1].toLowerCase(Locale.ROOT);
+                } else if (args[i].equals("-threads")) {
+                    threads = Integer.parseInt(args[i + 1]);
+                } else if (args[i].equals("-quality")) {
+                    quality = Float.parseFloat(args[i + 1]);
+                } else if (args[i].equals("-compression")) {
+                    compression = Integer.parseInt(args[i + 1]);
+                }
+                i++;
+            }
+        }
+
+        List<Operation> ops;
+        ImageExport export;
+        StreamPipeline pipeline = null;
+        try {
+            ops = Operations.parseList(args[2]);
+            export = new ImageExport(format).setJpegQuality(quality).setPngCompression(compression);
+            if (stream && mapped) {
+                throw new IllegalArgumentException("Use either -stream or -mapped");
+            }
+            if ((stream || mapped) && !export.canStream()) {
+                throw new IllegalArgumentException("Cannot stream to " + format + ", use -format png or tiff");
+            }
+            if (stream) {
+                pipeline = new StreamPipeline(ops);
+            }
+            if (mapped) {
+                for (Operation op : ops) {
+                    if (!op.isBanded()) {
+                        throw new IllegalArgumentException(op + " needs the whole image, it cannot run with -mapped");
+                    }
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+        File[] files = inputDir.listFiles(f -> f.isFile() && IMAGE_EXTENSIONS.contains(extension(f)));
+        if (files == null) {
+            System.err.println("Not a directory: " + inputDir);
+            System.exit(2);
+            return;
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            System.err.println("Cannot create " + outputDir);
+            System.exit(2);
+        }
+
+        int failed = new BatchRunner(ops, outputDir, format, export, pipeline, mapped).run(Arrays.asList(files), threads);
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Processes the files on a pool of the given size and prints per-file timings and totals.
+     *
+     * @return number of files that failed
+     */
+    int run(List<File> files, int threads) throws InterruptedException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        CompletionService<Result> done = new ExecutorCompletionService<>(workers);
+        long start = System.nanoTime();
+        for (File file : files) {
+            done.submit(() -> process(file));
+        }
+
+        int failed = 0;
+        double megapixels = 0;
+        try {
+            for (int i = 0; i < files.size(); i++) {
+                Result r;
+                try {
+                    r = done.take().get();
+                } catch (ExecutionException e) {
+                    r = new Result(null, 0, 0, e.getCause());
+                }
+                if (r.error != null) {
+                    failed++;
+                    System.out.printf("%-40s FAILED: %s%n", r.name, r.error);
+                } else {
+                    megapixels += r.megapixels;
+                    System.out.printf("%-40s %9.1f ms %8.2f MP%n", r.name, r.millis, r.megapixels);
+                }
+            }
+        } finally {
+            workers.shutdownNow();
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        int ok = files.size() - failed;
+        System.out.printf("%d images (%d failed) in %.2f s with %d threads: %.2f images/s, %.2f MP/s%n",
+                files.size(), failed, seconds, threads, ok / seconds, megapixels / seconds);
+        return failed;
+    }
+
+    private Result process(File file) {
+        long start = System.nanoTime();
+        try {
+            File out = new File(outputDir, baseName(file) + "." + format);
+            if (pipeline != null) {
+                try (ImageLoader loader = ImageLoader.open(file)) {
+                    pipeline.run(loader, export, out, null, Progress.NONE);
+                    return new Result(file.getName(), (System.nanoTime() - start) / 1e6,
+                            (double) loader.width * loader.height / 1e6, null);
+                }
+            }
+            if (mapped) {
+                return processMapped(file, out, start);
+            }
+            BufferedImage in = ImageIO.read(file);
+            if (in == null) {
+                throw new IOException("unsupported image format");
+            }
+            ArgbRaster raster = AwtRasters.read(in);
+            ArgbRaster scratch = new ArgbRaster(raster.width, raster.height);
+            for (Operation op : ops) {
+                // Some kernels leave pixels unwritten; they must not keep an earlier step's result
+                Arrays.fill(scratch.pixels, 0);
+                op.apply(raster, scratch, null);
+                ArgbRaster t = raster;
+                raster = scratch;
+                scratch = t;
+            }
+            export.write(raster, out, Progress.NONE);
+            return new Result(file.getName(), (System.nanoTime() - start) / 1e6,
+                    raster.size() / 1e6, null);
+        } catch (IOException | RuntimeException e) {
+            return new Result(file.getName(), 0, 0, e);
+        }
+    }
+
+    private Result processMapped(File file, File out, long start) throws IOException {
+        try (ImageLoader loader = ImageLoader.open(file);
+             MappedRaster first = MappedRaster.load(loader, Progress.NONE);
+             MappedRaster second = MappedRaster.create(loader.width, loader.height)) {
+            MappedRaster raster = first;
+            MappedRaster scratch = second;
+            for (Operation op : ops) {
+                raster.apply(op, scratch, null, Progress.NONE);
+                MappedRaster t = raster;
+                raster = scratch;
+                scratch = t;
+            }
+            raster.save(export, out, Progress.NONE);
+            return new Result(file.getName(), (System.nanoTime() - start) / 1e6,
+                    (double) loader.width * loader.height / 1e6, null);
+        }
+    }
+
+    private static String extension(File f) {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+    }
+
+    private static String baseName(File f) {
+        String name = f.getName();
+        int dot = name.lastIndexOf('.');
+        return dot < 0 ? name : name.substring(0, dot);
+    }
+
+    private static class Result {
+        final String name;
+        final double millis;
+        final double megapixels;
+        final Throwable error;
+
+        Result(String name, double millis, double megapixels, Throwable error) {
+            this.name = name;
+            this.millis = millis;
+            this.megapixels = megapixels;
+            this.error = error;
+        }
+    }
+}
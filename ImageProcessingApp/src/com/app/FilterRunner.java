@@ -0,0 +1,125 @@
+package com.app;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.app.util.Progress;
+import javafx.beans.property.ReadOnlyObjectProperty;
+import javafx.beans.property.ReadOnlyObjectWrapper;
+import javafx.concurrent.Task;
+
+/**
+ * Runs filters as JavaFX Tasks on one background thread, so the window stays responsive.
+ * <p>
+ * Jobs run one at a time in submission order. Submitting a job under a key cancels the
+ * previous job with the same key, whether it is still queued or already running, so only
+ * the latest click for an operation produces a result. Call from the JavaFX thread only.
+ */
+class FilterRunner {
+
+    private static final Logger LOG = Logger.getLogger(FilterRunner.class.getName());
+
+    /**
+     * Work done on the background thread; the result is handed to the JavaFX thread.
+     */
+    interface Job<T> {
+        T run(Progress progress) throws Exception;
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "filter-runner");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<String, Task<?>> latest = new HashMap<>();
+    private final ReadOnlyObjectWrapper<Task<?>> current = new ReadOnlyObjectWrapper<>();
+    private BiConsumer<String, Throwable> onFailure;
+
+    /**
+     * Task that last started running, for binding a progress bar.
+     */
+    ReadOnlyObjectProperty<Task<?>> currentProperty() {
+        return current.getReadOnlyProperty();
+    }
+
+    /**
+     * Called on the JavaFX thread with the key and exception of every job that fails,
+     * after the exception has been logged.
+     */
+    void setOnFailure(BiConsumer<String, Throwable> onFailure) {
+        this.onFailure = onFailure;
+    }
+
+    <T> void submit(String key, Job<T> job, Consumer<T> onSuccess) {
+        Task<T> task = new Task<T>() {
+            @Override
+            protected T call() throws Exception {
+                Task<T> self = this;
+                return job.run(new Progress() {
+                    @Override
+                    public boolean isCancelled() {
+                        return self.isCancelled();
+                    }
+
+                    @Override
+                    protected void update(long done, long total) {
+                        updateProgress(done, total);
+                    }
+                });
+            }
+
+            @Override
+            protected void running() {
+                current.set(this);
+            }
+
+            @Override
+            protected void succeeded() {
+                finish(key, this);
+                onSuccess.accept(getValue());
+            }
+
+            @Override
+            protected void cancelled() {
+                finish(key, this);
+            }
+
+            @Override
+            protected void failed() {
+                finish(key, this);
+                LOG.log(Level.WARNING, key + " failed", getException());
+                if (onFailure != null) {
+                    onFailure.accept(key, getException());
+                }
+            }
+        };
+        Task<?> previous = latest.put(key, task);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * Cancels every queued or running job, e.g. before another image is loaded.
+     */
+    void cancelAll() {
+        for (Task<?> task : latest.values()) {
+            task.cancel(false);
+        }
+        latest.clear();
+    }
+
+    private void finish(String key, Task<?> task) {
+        latest.remove(key, task);
+        if (current.get() == task) {
+            current.set(null);
+        }
+    }
+}
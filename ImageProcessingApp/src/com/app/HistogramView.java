@@ -0,0 +1,141 @@
+package com.app;
+
+import com.app.util.Histogram;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.layout.Region;
+import javafx.scene.paint.Color;
+import javafx.scene.text.TextAlignment;
+
+/**
+ * Histogram drawn straight onto a single Canvas.
+ * <p>
+ * The view always holds one node; resizing or setting a new histogram only repaints it,
+ * so it can follow the image live. Shows the blue channel by default, or red, green and
+ * blue overlaid, on a linear or logarithmic count scale.
+ */
+public class HistogramView extends Region {
+    private static final double LEFT = 60;
+    private static final double RIGHT = 15;
+    private static final double TOP = 15;
+    private static final double BOTTOM = 40;
+
+    private final Canvas canvas = new Canvas();
+    private Histogram histogram;
+    private boolean allChannels;
+    private boolean logScale;
+
+    public HistogramView() {
+        getChildren().add(canvas);
+        setPrefSize(600, 400);
+    }
+
+    public HistogramView(Histogram histogram) {
+        this();
+        setHistogram(histogram);
+    }
+
+    public void setHistogram(Histogram histogram) {
+        this.histogram = histogram;
+        draw();
+    }
+
+    public void setAllChannels(boolean allChannels) {
+        this.allChannels = allChannels;
+        draw();
+    }
+
+    public void setLogScale(boolean logScale) {
+        this.logScale = logScale;
+        draw();
+    }
+
+    @Override
+    protected void layoutChildren() {
+        double w = getWidth();
+        double h = getHeight();
+        if (canvas.getWidth() != w || canvas.getHeight() != h) {
+            canvas.setWidth(w);
+            canvas.setHeight(h);
+            draw();
+        }
+    }
+
+    private void draw() {
+        double w = canvas.getWidth();
+        double h = canvas.getHeight();
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, w, h);
+        double plotW = w - LEFT - RIGHT;
+        double plotH = h - TOP - BOTTOM;
+        if (histogram == null || plotW <= 0 || plotH <= 0) {
+            return;
+        }
+
+        int[] channels = allChannels
+                ? new int[]{Histogram.RED, Histogram.GREEN, Histogram.BLUE}
+                : new int[]{Histogram.BLUE};
+        long max = 1;
+        for (int c : channels) {
+            for (long n : histogram.bins(c)) {
+                max = Math.max(max, n);
+            }
+        }
+        double top = scale(max);
+
+        for (int c : channels) {
+            long[] bins = histogram.bins(c);
+            gc.setFill(allChannels ? colorOf(c) : Color.DIMGRAY);
+            gc.beginPath();
+            gc.moveTo(LEFT, TOP + plotH);
+            for (int i = 0; i < 256; i++) {
+                gc.lineTo(LEFT + plotW * i / 255.0, TOP + plotH - plotH * scale(bins[i]) / top);
+            }
+            gc.lineTo(LEFT + plotW, TOP + plotH);
+            gc.closePath();
+            gc.fill();
+        }
+
+        gc.setStroke(Color.BLACK);
+        gc.setLineWidth(1);
+        gc.strokeLine(LEFT, TOP + plotH, LEFT + plotW, TOP + plotH);
+        gc.strokeLine(LEFT, TOP, LEFT, TOP + plotH);
+        gc.setFill(Color.BLACK);
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.setTextBaseline(VPos.TOP);
+        for (int v = 0; v <= 256; v += 64) {
+            int level = Math.min(v, 255);
+            double x = LEFT + plotW * level / 255.0;
+            gc.strokeLine(x, TOP + plotH, x, TOP + plotH + 4);
+            gc.fillText(Integer.toString(level), x, TOP + plotH + 6);
+        }
+        gc.fillText("Brightness", LEFT + plotW / 2, TOP + plotH + 22);
+        gc.setTextAlign(TextAlignment.RIGHT);
+        gc.setTextBaseline(VPos.CENTER);
+        gc.fillText(Long.toString(max), LEFT - 4, TOP);
+        gc.fillText("0", LEFT - 4, TOP + plotH);
+        gc.setTextAlign(TextAlignment.CENTER);
+        gc.save();
+        gc.translate(12, TOP + plotH / 2);
+        gc.rotate(-90);
+        gc.fillText(logScale ? "Number of pixels (log)" : "Number of pixels", 0, 0);
+        gc.restore();
+    }
+
+    private double scale(long n) {
+        return logScale ? Math.log1p(n) : n;
+    }
+
+    private static Color colorOf(int channel) {
+        switch (channel) {
+            case Histogram.RED:
+                return Color.rgb(255, 0, 0, 0.4);
+            case Histogram.GREEN:
+                return Color.rgb(0, 160, 0, 0.4);
+            default:
+                return Color.rgb(0, 0, 255, 0.4);
+        }
+    }
+}
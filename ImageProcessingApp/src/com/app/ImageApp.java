@@ -1,39 +1,44 @@
 package com.app;
 
-import java.awt.Graphics2D;
-import java.awt.image.BufferedImage;
 import java.io.File;
-import java.io.IOException;
-import java.net.MalformedURLException;
+import java.util.ArrayList;
 import java.util.Arrays;
-
-import javax.imageio.ImageIO;
-
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import com.app.util.ArgbRaster;
+import com.app.util.FxRasters;
+import com.app.util.Histogram;
+import com.app.util.History;
+import com.app.util.ImageExport;
+import com.app.util.ImageLoader;
+import com.app.util.Operation;
+import com.app.util.Operations;
+import com.app.util.ResultCache;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.beans.InvalidationListener;
 import javafx.beans.Observable;
 import javafx.beans.property.DoubleProperty;
 import javafx.beans.property.SimpleDoubleProperty;
 import javafx.geometry.NodeOrientation;
-import javafx.scene.chart.LineChart;
 import javafx.scene.control.*;
 import javafx.stage.FileChooser;
 import javafx.stage.Stage;
 import javafx.scene.Group;
 import javafx.scene.Scene;
-import javafx.scene.SnapshotParameters;
 import javafx.scene.SubScene;
 import javafx.scene.layout.BorderPane;
-import javafx.embed.swing.SwingFXUtils;
+import javafx.scene.layout.GridPane;
 import javafx.event.ActionEvent;
 import javafx.event.EventHandler;
 import javafx.geometry.Insets;
 import javafx.scene.image.Image;
 import javafx.scene.image.ImageView;
-import javafx.scene.image.WritableImage;
 import javafx.scene.input.KeyEvent;
 import javafx.scene.input.MouseEvent;
 import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import javafx.scene.paint.Color;
@@ -70,15 +75,30 @@ public class ImageApp extends Application {
     private BorderPane border;
 
     private StackPane pane;
-    private Image image;
+    private File loading;
     private ImageView imageView;
     private ImageProcessor ip;
+    private final FilterRunner runner = new FilterRunner();
+    private Operation shownOp;
+    private float jpegQuality = 0.75f;
+    private int pngCompression = 4;
+    private CheckBox previewCheck;
+    private final List<HistogramView> liveHistograms = new ArrayList<>();
     private int sceneWidth = 1100;
     private int sceneHeight = 700;
     final DoubleProperty zoomProperty = new SimpleDoubleProperty(200);
     private static final Color BACKGROUND_COLOR = Color.WHITE;
     private static final double SCROLL_FACTOR = .01;
     private static final double SCROLL_DELTA = 10.0;
+    // Worker threads for filters, -Dimageapp.threads=N overrides the core count
+    private static final ForkJoinPool FILTER_POOL = new ForkJoinPool(
+            Integer.getInteger("imageapp.threads", Runtime.getRuntime().availableProcessors()));
+    // Pixels of the quick first pass shown while a large file loads, and most pixels kept
+    // for processing; larger files load subsampled, -Dimageapp.load.pixels overrides
+    private static final long PREVIEW_PIXELS = 1L << 20;
+    private static final long LOAD_PIXELS = Long.getLong("imageapp.load.pixels", 1L << 28);
+    private static final ResultCache RESULT_CACHE = new ResultCache(
+            Long.getLong("imageapp.cache.bytes", 512L << 20));
 
     private VBox vBox;
     private int fileNameIndex;
@@ -106,6 +126,7 @@ public class ImageApp extends Application {
     @Override
     public void start(Stage stage) throws Exception {
         this.stage = stage;
+        runner.setOnFailure(this::showError);
         buildScene();
         stage.setTitle("Image Application");
         stage.setScene(scene);
@@ -267,6 +288,201 @@ public class ImageApp extends Application {
 
     }
 
+    /**
+     * Opens a histogram window with channel and scale toggles. A live window follows the
+     * image shown in the main view until it is closed.
+     */
+    private void showHistogram(HistogramView view, boolean live) {
+        CheckBox allChannels = new CheckBox("RGB overlay");
+        allChannels.setOnAction(e -> view.setAllChannels(allChannels.isSelected()));
+        CheckBox logScale = new CheckBox("Log scale");
+        logScale.setOnAction(e -> view.setLogScale(logScale.isSelected()));
+        HBox options = new HBox(10, allChannels, logScale);
+        options.setPadding(new Insets(5));
+        BorderPane root = new BorderPane(view);
+        root.setTop(options);
+
+        Stage newStage = new Stage();
+        newStage.setScene(new Scene(root, sceneWidth, sceneHeight));
+        if (live) {
+            liveHistograms.add(view);
+            newStage.setOnHidden(e -> liveHistograms.remove(view));
+        }
+        newStage.show();
+    }
+
+    /**
+     * Updates the live histograms when the view shows the current result.
+     */
+    private void refreshHistograms() {
+        if (ip != null && imageView != null && imageView.getImage() == ip.wImage && !liveHistograms.isEmpty()) {
+            Histogram histogram = ip.resultHistogram();
+            for (HistogramView view : liveHistograms) {
+                view.setHistogram(histogram);
+            }
+        }
+    }
+
+    /**
+     * Runs op on the loaded image in the background and shows the result when it is ready.
+     * A newer click on the same operation replaces this one.
+     */
+    private void submit(Operation op) {
+        submit(op, null);
+    }
+
+    /**
+     * Same as {@link #submit(Operation)}, running then on the JavaFX thread once the result is shown.
+     */
+    private void submit(Operation op, Runnable then) {
+        if (ip == null) {
+            return;
+        }
+        ImageProcessor proc = ip;
+        String name = op.spec().split(":")[0];
+        runner.submit(name, progress -> proc.computeStep(op, progress), step -> {
+            if (proc == ip) {
+                shownOp = op;
+                imageView.setEffect(null);
+                imageView.setImage(proc.show(step));
+                if (then != null) {
+                    then.run();
+                }
+            }
+        });
+    }
+
+    /**
+     * Shows a step of the undo history, restoring its pixels in the background.
+     */
+    private void showStep(ImageProcessor proc, History.Step step) {
+        runner.submit("history", progress -> proc.restore(step, progress), result -> {
+            if (proc == ip) {
+                shownOp = step != null ? step.op() : null;
+                imageView.setEffect(null);
+                imageView.setImage(proc.show(result));
+            }
+        });
+    }
+
+    /**
+     * Matches the resolution filters work at to the size the image is shown at, and shows
+     * the current result again at that resolution. Without preview filters use the full image.
+     */
+    private void updatePreview() {
+        if (ip == null || pane == null || pane.getWidth() <= 0 || pane.getHeight() <= 0) {
+            return;
+        }
+        double scale = Math.max(0.05, imageView.getScaleX()) * stage.getOutputScaleX();
+        int factor = previewCheck.isSelected()
+                ? ip.previewFactor(pane.getWidth() * scale, pane.getHeight() * scale)
+                : 1;
+        if (factor == ip.previewFactor()) {
+            return;
+        }
+        ImageProcessor proc = ip;
+        Operation op = shownOp;
+        runner.submit("preview", progress -> {
+            proc.usePreview(factor);
+            return op != null ? proc.compute(op, progress) : null;
+        }, result -> {
+            if (proc == ip && result != null && op == shownOp) {
+                imageView.setImage(proc.show(result));
+            }
+        });
+    }
+
+    /**
+     * Decodes file in the background. A large file first shows a coarse subsampled pass
+     * while the full resolution is decoded; files over LOAD_PIXELS stay subsampled.
+     */
+    private void load(File file) {
+        runner.cancelAll();
+        ip = null;
+        shownOp = null;
+        loading = file;
+        runner.submit("open", progress -> {
+            try (ImageLoader loader = ImageLoader.open(file)) {
+                int subsampling = ImageLoader.subsamplingFor(loader.width, loader.height, LOAD_PIXELS);
+                int coarse = ImageLoader.subsamplingFor(loader.width, loader.height, PREVIEW_PIXELS);
+                if (coarse > subsampling) {
+                    ArgbRaster first = loader.read(coarse, progress);
+                    Platform.runLater(() -> {
+                        if (loading == file && ip == null) {
+                            showLoaded(file, FxRasters.toImage(first));
+                        }
+                    });
+                }
+                if (subsampling > 1) {
+                    String note = file.getName() + " (" + loader.width + "x" + loader.height
+                            + ", loaded and saved subsampled by " + subsampling + ")";
+                    Platform.runLater(() -> {
+                        if (loading == file) {
+                            showFileName(note);
+                        }
+                    });
+                }
+                return loader.read(subsampling, progress);
+            }
+        }, raster -> {
+            if (loading == file) {
+                loading = null;
+                ImageProcessor proc = new ImageProcessor(raster);
+                proc.setPool(FILTER_POOL);
+                proc.setCache(RESULT_CACHE);
+                proc.setOnPublish(this::refreshHistograms);
+                ip = proc;
+                showLoaded(file, proc.original());
+                updatePreview();
+            }
+        });
+    }
+
+    /**
+     * Shows image from file in the main view, replacing the view when it showed another file.
+     */
+    private void showLoaded(File file, Image image) {
+        if (imageView != null && imageView.getUserData() == file) {
+            imageView.setImage(image);
+            return;
+        }
+        double ih = image.getHeight();
+        double iw = image.getWidth();
+        imageView = new ImageView();
+        imageView.setUserData(file);
+        imageView.setImage(image);
+        imageView.imageProperty().addListener((obs, oldImage, newImage) -> refreshHistograms());
+
+        double ssWidth = scene.getWidth() - 300;
+        double ssHeight = ssWidth * ih / iw;
+
+        subSceneRoot = new Group();
+        subScene = new SubScene(subSceneRoot, ssWidth, ssHeight);
+        pane = new StackPane();
+        pane.getChildren().add(subScene);
+
+        imageView.setPreserveRatio(true);
+        imageView.fitWidthProperty().bind(pane.widthProperty());
+        imageView.fitHeightProperty().bind(pane.heightProperty());
+
+        subSceneRoot.getChildren().add(imageView);
+
+        border.setCenter(pane);
+
+        originX = 0.0;
+        originY = 0.0;
+        imageView.setX(originX);
+        imageView.setY(originY);
+        imageView.setScaleX(1.0);
+        imageView.setScaleY(1.0);
+        rotate = 0.0;
+        imageView.setRotate(rotate);
+        InvalidationListener preview = o -> updatePreview();
+        pane.widthProperty().addListener(preview);
+        pane.heightProperty().addListener(preview);
+        imageView.scaleXProperty().addListener(preview);
+    }
+
     /**
      * Resets rotation, zoom, and location values to defaults.
      */
@@ -291,6 +507,8 @@ public class ImageApp extends Application {
 
         Button btnOrig = new Button("Original");
         Button btnInvert = new Button("Invert");
+        Button btnUndo = new Button("Undo");
+        Button btnRedo = new Button("Redo");
         TextField addConst = new TextField();
         addConst.setPromptText("+const");
         Button btnAddConst = new Button("Add const");
@@ -304,23 +522,33 @@ public class ImageApp extends Application {
         Button btnHist = new Button("Histogram");
         Button btnHistEq = new Button("Equalized Histogram");
         Button btnOrigHist = new Button("Original Histogram");
+        TextField claheParams = new TextField();
+        claheParams.setPromptText("tiles:clip (8:2)");
+        Button btnClahe = new Button("Adaptive equalization");
         Button btnGray = new Button("Gray");
         Button btnLincontrast = new Button("Linear contrast");
         Button btnBitSlice = new Button("Bit slice");
         Button btnOtsuGt = new Button("Otsu GT");
         Button btnHistGt = new Button("Hist GT");
         Button btnGradGt = new Button("Gradient GT");
+        TextField localRadius = new TextField();
+        localRadius.setPromptText("window radius (25)");
+        Button btnBradleyLt = new Button("Bradley LT");
+        Button btnSauvolaLt = new Button("Sauvola LT");
         TextField bitSlice = new TextField();
         bitSlice.setPromptText("bitplane №");
 
         btnOrig.setMaxWidth(Double.MAX_VALUE);
         btnInvert.setMaxWidth(Double.MAX_VALUE);
+        btnUndo.setMaxWidth(Double.MAX_VALUE);
+        btnRedo.setMaxWidth(Double.MAX_VALUE);
         btnAddConst.setMaxWidth(Double.MAX_VALUE);
         btnSubsConst.setMaxWidth(Double.MAX_VALUE);
         btnPow.setMaxWidth(Double.MAX_VALUE);
         btnLog.setMaxWidth(Double.MAX_VALUE);
         btnHist.setMaxWidth(Double.MAX_VALUE);
         btnHistEq.setMaxWidth(Double.MAX_VALUE);
+        btnClahe.setMaxWidth(Double.MAX_VALUE);
         btnGray.setMaxWidth(Double.MAX_VALUE);
         btnOrigHist.setMaxWidth(Double.MAX_VALUE);
         btnLincontrast.setMaxWidth(Double.MAX_VALUE);
@@ -328,39 +556,63 @@ public class ImageApp extends Application {
         btnOtsuGt.setMaxWidth(Double.MAX_VALUE);
         btnHistGt.setMaxWidth(Double.MAX_VALUE);
         btnGradGt.setMaxWidth(Double.MAX_VALUE);
+        btnBradleyLt.setMaxWidth(Double.MAX_VALUE);
+        btnSauvolaLt.setMaxWidth(Double.MAX_VALUE);
 
         VBox vbButtons = new VBox();
         vbButtons.setSpacing(10);
         vbButtons.setPadding(new Insets(10, 20, 10, 20));
-        vbButtons.getChildren().addAll(btnOrig, btnInvert, addConst,
+        vbButtons.getChildren().addAll(btnOrig, btnUndo, btnRedo, btnInvert, addConst,
                 btnAddConst, subsConst, btnSubsConst,
                 btnLog, powConst, btnPow,
-                btnOrigHist, btnHist, btnHistEq,
+                btnOrigHist, btnHist, btnHistEq, claheParams, btnClahe,
                 btnGray, btnLincontrast, bitSlice,
-                btnBitSlice, btnOtsuGt, btnHistGt, btnGradGt);
+                btnBitSlice, btnOtsuGt, btnHistGt, btnGradGt,
+                localRadius, btnBradleyLt, btnSauvolaLt);
 
         btnOrig.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
+                if (ip == null) {
+                    return;
+                }
+                runner.cancelAll();
+                shownOp = null;
                 imageView.setEffect(null);
-                imageView.setImage(image);
+                imageView.setImage(ip.showOriginal());
+            }
+        });
+
+        btnUndo.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent e) {
+                if (ip != null && ip.canUndo()) {
+                    showStep(ip, ip.undo());
+                }
+            }
+        });
+
+        btnRedo.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent e) {
+                if (ip != null && ip.canRedo()) {
+                    showStep(ip, ip.redo());
+                }
             }
         });
 
         btnInvert.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
-                imageView.setImage(ip.invert());
+                submit(Operations.invert());
             }
         });
 
         btnAddConst.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
                 if (addConst.getText() != null) {
-                    imageView.setImage(ip.addConst((Integer.parseInt(addConst.getText()))));
+                    submit(Operations.addConst(Integer.parseInt(addConst.getText())));
                 }
             }
         });
@@ -368,9 +620,8 @@ public class ImageApp extends Application {
         btnSubsConst.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
                 if (subsConst.getText() != null) {
-                    imageView.setImage(ip.substractConst((Integer.parseInt(subsConst.getText()))));
+                    submit(Operations.substractConst(Integer.parseInt(subsConst.getText())));
                 }
             }
         });
@@ -378,17 +629,15 @@ public class ImageApp extends Application {
         btnLog.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
-                imageView.setImage(ip.log());
+                submit(Operations.log());
             }
         });
 
         btnPow.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
                 if (powConst.getText() != null) {
-                    imageView.setImage(ip.pow((Integer.parseInt(powConst.getText()))));
+                    submit(Operations.pow(Integer.parseInt(powConst.getText())));
                 }
             }
         });
@@ -396,87 +645,125 @@ public class ImageApp extends Application {
         btnOrigHist.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                Stage newStage = new Stage();
-                LineChart aHist = ip.hist();
-                Scene newScene = new Scene(aHist, sceneWidth, sceneHeight);
-                newStage.setScene(newScene);
-                newStage.show();
+                showHistogram(ip.hist(), false);
             }
         });
 
         btnHist.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                Stage newStage = new Stage();
-                LineChart aHist = ip.hist(ip.wImage);
-                Scene newScene = new Scene(aHist, sceneWidth, sceneHeight);
-                newStage.setScene(newScene);
-                newStage.show();
+                showHistogram(ip.resultHist(), true);
             }
         });
 
         btnHistEq.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                WritableImage writableImage = ip.equalize();
-                imageView.setEffect(null);
-                imageView.setImage(writableImage);
-                Stage newStage = new Stage();
-                LineChart aHist = ip.hist(writableImage);
-                Scene newScene = new Scene(aHist, sceneWidth, sceneHeight);
-                newStage.setScene(newScene);
-                newStage.show();
+                ImageProcessor proc = ip;
+                submit(Operations.equalize(), () -> showHistogram(proc.resultHist(), false));
+            }
+        });
+
+        btnClahe.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent e) {
+                String params = claheParams.getText() != null ? claheParams.getText().trim() : "";
+                submit(Operations.parse(params.isEmpty() ? "clahe" : "clahe:" + params));
             }
         });
 
         btnGray.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
-                imageView.setImage(ip.gray());
+                submit(Operations.gray());
             }
         });
 
         btnLincontrast.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
-                imageView.setImage(ip.linearContrast());
+                submit(Operations.linearContrast());
             }
         });
 
         btnBitSlice.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
                 int plane = Integer.parseInt(bitSlice.getText());
-                imageView.setImage(ip.bitSlice(plane));
+                ImageProcessor proc = ip;
+                runner.submit("bitSlice", progress -> proc.bitSliceMask(plane), mask -> {
+                    if (proc == ip) {
+                        shownOp = Operations.bitSlice(plane);
+                        imageView.setEffect(null);
+                        imageView.setImage(proc.show(shownOp, mask));
+                    }
+                });
             }
         });
 
         btnOtsuGt.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
-                imageView.setImage(ip.otsuGlobalThreshold());
+                submit(Operations.otsuThreshold());
             }
         });
 
         btnHistGt.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
-                imageView.setImage(ip.histThreshold());
+                submit(Operations.histThreshold());
             }
         });
 
         btnGradGt.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                imageView.setEffect(null);
-                imageView.setImage(ip.gradThreshold());
+                submit(Operations.gradThreshold());
+            }
+        });
+
+        btnBradleyLt.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent e) {
+                submit(Operations.bradleyThreshold(radius(localRadius), 15));
+            }
+        });
+
+        btnSauvolaLt.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent e) {
+                submit(Operations.sauvolaThreshold(radius(localRadius), 0.34));
+            }
+        });
+
+        ProgressBar progressBar = new ProgressBar(0);
+        progressBar.setMaxWidth(Double.MAX_VALUE);
+        Button btnCancel = new Button("Cancel");
+        btnCancel.setMaxWidth(Double.MAX_VALUE);
+        btnCancel.disableProperty().bind(runner.currentProperty().isNull());
+        runner.currentProperty().addListener((obs, oldTask, task) -> {
+            progressBar.progressProperty().unbind();
+            if (task != null) {
+                progressBar.progressProperty().bind(task.progressProperty());
+            } else {
+                progressBar.setProgress(0);
+            }
+        });
+        btnCancel.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent e) {
+                runner.cancelAll();
+            }
+        });
+        previewCheck = new CheckBox("Preview resolution");
+        previewCheck.setSelected(true);
+        previewCheck.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent e) {
+                updatePreview();
             }
         });
+        vbButtons.getChildren().addAll(progressBar, btnCancel, previewCheck);
 
         Label fileNameLabel = new Label(" ");
         fileNameLabel.setFont(Font.font("Regular", 14));
@@ -486,6 +773,37 @@ public class ImageApp extends Application {
         return vbButtons;
     }
 
+    /**
+     * Replaces the file name label at the bottom of the button column.
+     */
+    private void showFileName(String text) {
+        Label fileNameLabel = new Label(text);
+        fileNameLabel.setFont(Font.font("Regular", 14));
+        fileNameLabel.setWrapText(true);
+        vBox.getChildren().remove(fileNameIndex);
+        vBox.getChildren().add(fileNameLabel);
+    }
+
+    /**
+     * Tells the user that the background job under key failed; the runner has logged it.
+     */
+    private void showError(String key, Throwable error) {
+        Alert alert = new Alert(Alert.AlertType.ERROR);
+        alert.initOwner(stage);
+        alert.setTitle("Image Application");
+        alert.setHeaderText(key + " failed");
+        alert.setContentText(error.getMessage() != null ? error.getMessage() : error.toString());
+        alert.show();
+    }
+
+    /**
+     * Window radius typed into field, 25 when it is empty.
+     */
+    private static int radius(TextField field) {
+        String text = field.getText() != null ? field.getText().trim() : "";
+        return text.isEmpty() ? 25 : Integer.parseInt(text);
+    }
+
     /**
      * Creates MenuBar items and defines associated actions.
      *
@@ -500,7 +818,6 @@ public class ImageApp extends Application {
         openItem.setOnAction(new EventHandler<ActionEvent>() {
             @Override
             public void handle(ActionEvent e) {
-                String fileURL = null;
                 FileChooser fileChooser = new FileChooser();
                 fileChooser.setTitle("Open Data File");
                 String currentDirectory = findDefaultDirectory();
@@ -510,47 +827,8 @@ public class ImageApp extends Application {
                         new FileChooser.ExtensionFilter("All Files", "*.*"));
                 File file = fileChooser.showOpenDialog(stage);
                 if (file != null) {
-                    try {
-                        fileURL = file.toURI().toURL().toString();
-                        image = new Image(fileURL, false);
-                    } catch (MalformedURLException ex) {
-                        //error
-                    }
-                    Label fileNameLabel = new Label(file.getName());
-                    fileNameLabel.setFont(Font.font("Regular", 14));
-                    vBox.getChildren().remove(fileNameIndex);
-                    vBox.getChildren().add(fileNameLabel);
-
-                    double ih = image.getHeight();
-                    double iw = image.getWidth();
-                    imageView = new ImageView();
-                    imageView.setImage(image);
-
-                    double ssWidth = scene.getWidth() - 300;
-                    double ssHeight = ssWidth * ih / iw;
-
-                    subSceneRoot = new Group();
-                    subScene = new SubScene(subSceneRoot, ssWidth, ssHeight);
-                    pane = new StackPane();
-                    pane.getChildren().add(subScene);
-
-                    imageView.setPreserveRatio(true);
-                    imageView.fitWidthProperty().bind(pane.widthProperty());
-                    imageView.fitHeightProperty().bind(pane.heightProperty());
-
-                    subSceneRoot.getChildren().add(imageView);
-
-                    border.setCenter(pane);
-
-                    originX = 0.0;
-                    originY = 0.0;
-                    imageView.setX(originX);
-                    imageView.setY(originY);
-                    imageView.setScaleX(1.0);
-                    imageView.setScaleY(1.0);
-                    rotate = 0.0;
-                    imageView.setRotate(rotate);
-                    ip = new ImageProcessor(image);
+                    showFileName(file.getName());
+                    load(file);
                 }
             }
         });
@@ -590,7 +868,15 @@ public class ImageApp extends Application {
             }
         });
 
-        mainMenu.getItems().addAll(openItem, saveSceneMenu);
+        MenuItem exportSettingsItem = new MenuItem("Export Settings...");
+        exportSettingsItem.setOnAction(new EventHandler<ActionEvent>() {
+            @Override
+            public void handle(ActionEvent e) {
+                showExportSettings();
+            }
+        });
+
+        mainMenu.getItems().addAll(openItem, saveSceneMenu, exportSettingsItem);
 
         Menu helpMenu = new Menu("Help");
         MenuItem helpItem = new MenuItem("Show Help Text");
@@ -628,11 +914,18 @@ public class ImageApp extends Application {
     }
 
     /**
-     * Writes the current subScene to an image file in the specified format.
+     * Writes the current image to a file in the specified format at full resolution, or at
+     * the loaded size of a file that was subsampled to fit LOAD_PIXELS.
+     * The operation shown is replayed on the full image and encoded in the background,
+     * with progress in the side panel, which names the file once it is written; bmp and
+     * jpg drop the alpha channel.
      *
      * @param format with values bmp, jpg, png, gif
      */
     private void saveImage(String format) {
+        if (ip == null) {
+            return;
+        }
 //    	System.out.println("Save Scene " + format);
         FileChooser fileChooser = new FileChooser();
         fileChooser.setTitle("Save Image " + format);
@@ -641,31 +934,45 @@ public class ImageApp extends Application {
         fileChooser.getExtensionFilters().addAll(
                 new FileChooser.ExtensionFilter("Image File", "*." + format));
         File file = fileChooser.showSaveDialog(stage);
-//      System.out.println("Save SubScene File= " + file);
         if (file != null) {
-            WritableImage wImage = subScene.snapshot(new SnapshotParameters(), null);
-
-            if (format == "png" || format == "gif") {
-                try {
-                    ImageIO.write(SwingFXUtils.fromFXImage(wImage, null), format, file);
-                } catch (IOException ex) {
-                    System.out.println(ex.getMessage());
-                }
-            } else if (format == "bmp" || format == "jpg") {
-                BufferedImage image = SwingFXUtils.fromFXImage(wImage, null);  // Get buffered image.
-                BufferedImage imageRGB = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.OPAQUE); // Remove alpha-channel from buffered image.
-                Graphics2D graphics = imageRGB.createGraphics();
-                graphics.drawImage(image, 0, 0, null);
-                try {
-                    ImageIO.write(imageRGB, format, file);
-                } catch (IOException ex) {
-                    System.out.println(ex.getMessage());
-                }
-                graphics.dispose();
-            }
+            ImageProcessor proc = ip;
+            Operation op = shownOp;
+            ImageExport export = new ImageExport(format)
+                    .setJpegQuality(jpegQuality)
+                    .setPngCompression(pngCompression);
+            runner.submit("save", progress -> {
+                export.write(proc.render(op, progress), file, progress);
+                return file;
+            }, saved -> showFileName("Saved " + saved.getName()));
         }
     }
 
+    /**
+     * Lets the user set the JPEG quality and PNG compression level used by Save Image.
+     */
+    private void showExportSettings() {
+        Slider quality = new Slider(0, 100, Math.round(jpegQuality * 100));
+        quality.setShowTickLabels(true);
+        quality.setMajorTickUnit(25);
+        Spinner<Integer> compression = new Spinner<>(0, 9, pngCompression);
+
+        GridPane grid = new GridPane();
+        grid.setHgap(10);
+        grid.setVgap(10);
+        grid.setPadding(new Insets(10));
+        grid.addRow(0, new Label("JPEG quality"), quality);
+        grid.addRow(1, new Label("PNG compression (0-9)"), compression);
+
+        Dialog<ButtonType> dialog = new Dialog<>();
+        dialog.setTitle("Export Settings");
+        dialog.getDialogPane().setContent(grid);
+        dialog.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
+        dialog.showAndWait().filter(b -> b == ButtonType.OK).ifPresent(b -> {
+            jpegQuality = (float) (quality.getValue() / 100);
+            pngCompression = compression.getValue();
+        });
+    }
+
     /**
      * Shows help text.
      */
@@ -675,10 +982,7 @@ public class ImageApp extends Application {
             imageView.setImage(null);
             reset();
         }
-        Label fileNameLabel = new Label(" ");
-        fileNameLabel.setFont(Font.font("Regular", 14));
-        vBox.getChildren().remove(fileNameIndex);
-        vBox.getChildren().add(fileNameLabel);
+        showFileName(" ");
 
         Label helpLabel = new Label(
                 " *  This application provides a GUI for image processing.\n" +
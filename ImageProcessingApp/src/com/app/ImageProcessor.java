@@ -1,22 +1,26 @@
 package com.app;
 
-import java.awt.image.*;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.util.*;
-
-import com.app.util.OtsuProcessor;
-import javafx.collections.ObservableList;
-import javafx.embed.swing.SwingFXUtils;
-import javafx.scene.chart.LineChart;
-import javafx.scene.chart.NumberAxis;
-import javafx.scene.chart.XYChart;
+import java.util.concurrent.ForkJoinPool;
+
+import com.app.util.ArgbRaster;
+import com.app.util.BinaryImage;
+import com.app.util.DisplayBuffer;
+import com.app.util.Filters;
+import com.app.util.FxRasters;
+import com.app.util.Histogram;
+import com.app.util.History;
+import com.app.util.ImageLoader;
+import com.app.util.IterativeThreshold;
+import com.app.util.LocalThreshold;
+import com.app.util.Operation;
+import com.app.util.Operations;
+import com.app.util.PointChain;
+import com.app.util.Progress;
+import com.app.util.ResultCache;
+import com.app.util.RowBands;
 import javafx.scene.image.*;
 import javafx.scene.image.Image;
 import javafx.scene.paint.Color;
-import javafx.scene.shape.Polygon;
-
-import javax.imageio.ImageIO;
 
 /**
  * This class provides a variety of image processing methods.
@@ -29,908 +33,466 @@ import javax.imageio.ImageIO;
 
 public class ImageProcessor {
 
+    /**
+     * Bytes of compressed undo snapshots to keep, set with -Dimageapp.history.bytes.
+     */
+    static final long HISTORY_BUDGET = Long.getLong("imageapp.history.bytes", 256L << 20);
+
     int width;
     int height;
     int centerX;
     int centerY;
     Color bgColor;
 
-    Image image;
-    PixelReader pixelReader;
-    PixelWriter pixelWriter;
+    DisplayBuffer display;
     WritableImage wImage;
-
-    ImageProcessor(Image image) {
-        this.image = image;
-        width = (int) image.getWidth();
-        height = (int) image.getHeight();
+    ArgbRaster full;
+    volatile ArgbRaster source;
+    /**
+     * Raster shown in wImage, or null when it shows a mask.
+     */
+    ArgbRaster target;
+    /**
+     * Mask shown in wImage, or null when it shows a raster.
+     */
+    BinaryImage mask;
+    int previewFactor = 1;
+    ForkJoinPool pool;
+    Runnable onPublish;
+    ResultCache cache;
+    History history = new History(HISTORY_BUDGET);
+
+    public ImageProcessor(Image image) {
+        // Pull all source pixels in one bulk read; the Image is not used afterwards
+        this(FxRasters.read(image));
+    }
+
+    /**
+     * Processor for pixels decoded without a JavaFX Image, e.g. by {@link ImageLoader};
+     * the raster becomes the source and must not be changed afterwards.
+     */
+    public ImageProcessor(ArgbRaster raster) {
+        width = raster.width;
+        height = raster.height;
         centerX = Math.round(width / 2);
         centerY = Math.round(height / 2);
         bgColor = Color.BLACK;
 
-        // Obtain PixelReader
-        pixelReader = image.getPixelReader();
+        full = raster;
+        source = full;
 
-        // Create WritableImage
-        wImage = new WritableImage(
-                (int) image.getWidth(),
-                (int) image.getHeight());
-        pixelWriter = wImage.getPixelWriter();
+        // Create the WritableImage over the display buffer
+        display = new DisplayBuffer(width, height);
+        wImage = display.image;
+        target = new ArgbRaster(width, height);
     }
 
     /* Filters start here */
 
     public WritableImage copy() {
-        // Copy pixels
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                pixelWriter.setArgb(readX, readY, rgb);
-            }
-        }
-        return wImage;
+        return run(Operations.copy());
     }
 
     public WritableImage invert() {
-        // Determine the color of each pixel in a specified row
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                // Invert image
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                r = 255 - r;
-                g = 255 - g;
-                b = 255 - b;
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.invert());
     }
 
     public WritableImage addConst(int i) {
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                // Add const
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                r += i;
-                g += i;
-                b += i;
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.addConst(i));
     }
 
     public WritableImage substractConst(int i) {
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                // Substract const 10
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                r -= i;
-                g -= i;
-                b -= i;
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.substractConst(i));
     }
 
     public WritableImage log() {
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                // Log
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                r = (int) Math.log(r);
-                g = (int) Math.log(g);
-                b = (int) (int) Math.log(b);
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.log());
     }
 
     public WritableImage pow(int i) {
-        int fmax = Arrays.stream(getGrayscaleArray()).max().getAsInt();
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                // Pow
-                int rgb = pixelReader.getArgb(readX, readY);
-                int max = fmax & 0xff;
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                r = (int) (255 * Math.pow((double) r / (double) max, i));
-                g = (int) (255 * Math.pow((double) g / (double) max, i));
-                b = (int) (255 * Math.pow((double) b / (double) max, i));
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.pow(i));
     }
 
-    public LineChart hist() {
-        NumberAxis x = new NumberAxis();
-        x.setAnimated(true);
-        x.setLabel("Brightness");
-        NumberAxis y = new NumberAxis();
-        y.setAnimated(true);
-        y.setLabel("Number of pixels");
-        LineChart<Number, Number> hist = getNumberNumberLineChart(x, y);
-        XYChart.Series<Number, Number> aSr = new XYChart.Series();
-        int[] arr = new int[256];
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int b = (rgb & 0xff);
-                arr[b]++;
-            }
-        }
-        for (int i = 0; i < 256; i++) {
-            aSr.getData().add(new XYChart.Data(i, arr[i]));
-        }
-        hist.getData().add(aSr);
-        return hist;
-    }
-
-    public LineChart hist(WritableImage im) {
-        NumberAxis x = new NumberAxis();
-        x.setAnimated(true);
-        x.setLabel("Brightness");
-        NumberAxis y = new NumberAxis();
-        y.setAnimated(true);
-        y.setLabel("Number of pixels");
-        LineChart<Number, Number> hist = getNumberNumberLineChart(x, y);
-        XYChart.Series<Number, Number> aSr = new XYChart.Series();
-        int[] arr = new int[256];
-        for (int readY = 0; readY < im.getHeight(); readY++) {
-            for (int readX = 0; readX < im.getWidth(); readX++) {
-                int rgb = im.getPixelReader().getArgb(readX, readY);
-                int b = (rgb & 0xff);
-                arr[b]++;
-            }
-        }
-        for (int i = 0; i < 256; i++) {
-            aSr.getData().add(new XYChart.Data(i, arr[i]));
-        }
-        hist.getData().add(aSr);
-        return hist;
-    }
-
-    private int[] getRChannelHistArr() {
-        int[] arr = new int[256];
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                arr[r]++;
-            }
-        }
-        return arr;
+    public HistogramView hist() {
+        return new HistogramView(histogram());
     }
 
-    private int[] getGChannelHistArr() {
-        int[] arr = new int[256];
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int g = (rgb & 0xff00) >> 8;
-                arr[g]++;
-            }
-        }
-        return arr;
+    public HistogramView resultHist() {
+        return new HistogramView(resultHistogram());
     }
 
-    private int[] getBChannelHistArr() {
-        int[] arr = new int[256];
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int b = (rgb & 0xff);
-                arr[b]++;
-            }
-        }
-        return arr;
+    /**
+     * Histogram of the loaded image.
+     */
+    public Histogram histogram() {
+        return source.histogram(pool);
     }
 
-    private int[] getBChannelHistArr(WritableImage im) {
-        int[] arr = new int[256];
-        for (int readY = 0; readY < im.getHeight(); readY++) {
-            for (int readX = 0; readX < im.getWidth(); readX++) {
-                int rgb = im.getPixelReader().getArgb(readX, readY);
-                int b = (rgb & 0xff);
-                arr[b]++;
-            }
-        }
-        return arr;
-    }
-
-    private LineChart<Number, Number> getNumberNumberLineChart(NumberAxis x, NumberAxis y) {
-        LineChart<Number, Number> hist = new LineChart<Number, Number>(x, y) {
-            //Overriding the layoutPlotChildren method
-            protected void layoutPlotChildren() {
-                super.layoutPlotChildren();
-                Series<Number, Number> series = (Series<Number, Number>)
-                        getData().get(0);
-                ObservableList<Data<Number, Number>> listOfData = series.getData();
-                for (int i = 0; i < listOfData.size() - 1; i++) {
-                    double x1 = getXAxis().getDisplayPosition(listOfData.get(i).getXValue());
-                    double y1 = getYAxis().getDisplayPosition(0);
-                    double x2 = getXAxis().getDisplayPosition(listOfData.get((i + 1)).getXValue());
-                    double y2 = getYAxis().getDisplayPosition(0);
-                    Polygon polygon = new Polygon();
-                    polygon.getPoints().addAll(new Double[]{
-                            x1, y1, x1, getYAxis().getDisplayPosition(listOfData.get(i).getYValue()), x2, getYAxis().getDisplayPosition(listOfData.get((i + 1)).getYValue()), x2, y2
-                    });
-                    getPlotChildren().add(polygon);
-                    polygon.toFront();
-                    polygon.setFill(Color.DIMGRAY);
-                }
-            }
-        };
-        hist.setAnimated(true);
-        hist.setCreateSymbols(false);
-        return hist;
+    /**
+     * Histogram of what wImage shows, taken from the raster or mask it was written from
+     * rather than read back from the display.
+     */
+    public Histogram resultHistogram() {
+        return target != null ? target.histogram(pool) : Histogram.of(mask);
     }
 
     public WritableImage linearContrast() {
-        int fMIN = 0;
-        int fMAX = 255;
-        int[] rArr = getRChannelHistArr();
-        int[] gArr = getGChannelHistArr();
-        int[] bArr = getBChannelHistArr();
-        double rMin = getMin(rArr);
-        double gMin = getMin(gArr);
-        double bMin = getMin(bArr);
-        double rMax = getMax(rArr);
-        double gMax = getMax(gArr);
-        double bMax = getMax(bArr);
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                r = (int) (((r - rMin) / (rMax - rMin)) * (fMAX - fMIN) + fMIN);
-                g = (int) (((g - gMin) / (gMax - gMin)) * (fMAX - fMIN) + fMIN);
-                b = (int) (((b - bMin) / (bMax - bMin)) * (fMAX - fMIN) + fMIN);
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.linearContrast());
     }
 
+    /**
+     * Shows bit plane d of the source in wImage. JavaFX thread only; compute the mask
+     * elsewhere with {@link #bitSliceMask(int)} and pass it to {@link #show(BinaryImage)}.
+     */
     public WritableImage bitSlice(int d) {
-        BufferedImage src = SwingFXUtils.fromFXImage(image, null);
-        BufferedImage transform = new BufferedImage(src.getWidth(), src.getHeight(), BufferedImage.TYPE_INT_RGB);
+        return show(Operations.bitSlice(d), bitSliceMask(d));
+    }
 
-        for (int i = 0; i < src.getWidth(); i++)
-            for (int j = 0; j < src.getHeight(); j++) {
+    public BinaryImage bitSliceMask(int d) {
+        return BinaryImage.bitSlice(source, d, pool);
+    }
 
-                int col = 0;
-                int fcol = src.getRGB(i, j);
-                if (((fcol >>> d) & 1) > 0) col = 0xffffff;
-                transform.setRGB(i, j, col);
-            }
-        return convertToFxImage(transform);
+    /**
+     * Black and white results of the threshold filters, packed 64 pixels per long.
+     * White pixels are the ones the filters paint white; the alpha channel is not kept.
+     */
+    public BinaryImage otsuMask() {
+        return BinaryImage.threshold(source, Operations.otsuLevel(source, pool), pool);
     }
 
-    public WritableImage otsuGlobalThreshold() {
-        BufferedImage src = SwingFXUtils.fromFXImage(image, null);
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        try {
-            ImageIO.write(src, "jpg", baos);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-        byte[] srcData = baos.toByteArray();
-        byte[] dstData = new byte[srcData.length];
-        OtsuProcessor processor = new OtsuProcessor();
-        int otsuGt = processor.doThreshold(srcData, dstData);
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                if ((r + g + b) / 3 > otsuGt) {
-                    r = 0;
-                    g = 0;
-                    b = 0;
-                } else {
-                    r = 255;
-                    g = 255;
-                    b = 255;
-                }
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+    public BinaryImage histMask() {
+        return BinaryImage.threshold(source, Operations.histLevel(source, pool), pool);
     }
 
-    public WritableImage histThreshold() {
-        int t = findHistThreshold();
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                if ((r + g + b) / 3 > t) {
-                    r = 0;
-                    g = 0;
-                    b = 0;
-                } else {
-                    r = 255;
-                    g = 255;
-                    b = 255;
-                }
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+    public BinaryImage gradMask() {
+        return BinaryImage.threshold(source, Operations.gradLevel(source, pool), pool);
     }
 
-    public WritableImage gradThreshold() {
-        int t = findBrightnessGradientThreshold();
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                if ((r + g + b) / 3 > t) {
-                    r = 0;
-                    g = 0;
-                    b = 0;
-                } else {
-                    r = 255;
-                    g = 255;
-                    b = 255;
-                }
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+    public BinaryImage bradleyMask(int radius, double percent) {
+        return new LocalThreshold(LocalThreshold.Method.BRADLEY, radius, percent).mask(source, pool);
     }
 
-    private int findHistThreshold() {
-        int t = 230;
-        int t_prev = t;
-        double e = 0.0001;
-        int[] g1 = new int[(int) (image.getWidth() * image.getHeight())];
-        int[] g2 = new int[(int) (image.getWidth() * image.getHeight())];
-        int i = 0;
-        int j = 0;
-        do {
-            t_prev = t;
-            for (int readY = 0; readY < image.getHeight(); readY++) {
-                for (int readX = 0; readX < image.getWidth(); readX++) {
-                    int rgb = pixelReader.getArgb(readX, readY);
-                    int r = (rgb & 0xff0000) >> 16;
-                    int g = (rgb & 0xff00) >> 8;
-                    int b = (rgb & 0xff);
-                    if ((r + g + b) / 3 < t) {
-                        g1[i] = (r + g + b) / 3;
-                        i++;
-                    } else {
-                        g2[j] = (r + g + b) / 3;
-                        j++;
-                    }
-                }
-            }
-            int g1Avg = (int) Arrays.stream(g1).average().getAsDouble();
-            int g2Avg = (int) Arrays.stream(g2).average().getAsDouble();
-            t = (g1Avg + g2Avg) / 2;
-            i = 0;
-            j = 0;
-        } while (Math.abs(t - t_prev) > e);
-        return t;
-    }
-
-    private int findBrightnessGradientThreshold() {
-        int gm = 0;
-        int gn = 0;
-        int gFunc = 0;
-        int fgAccum = 0;
-        int gAccum = 0;
-        for (int readY = 1; readY < image.getHeight() - 1; readY++) {
-            for (int readX = 1; readX < image.getWidth() - 1; readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int rgb1 = pixelReader.getArgb(readX + 1, readY);
-                int rgb2 = pixelReader.getArgb(readX - 1, readY);
-                int rgb3 = pixelReader.getArgb(readX, readY + 1);
-                int rgb4 = pixelReader.getArgb(readX, readY - 1);
-                int r = (rgb & 0xff0000) >> 16;
-                int r1 = (rgb1 & 0xff0000) >> 16;
-                int r2 = (rgb2 & 0xff0000) >> 16;
-                int r3 = (rgb3 & 0xff0000) >> 16;
-                int r4 = (rgb4 & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int g1 = (rgb1 & 0xff00) >> 8;
-                int g2 = (rgb2 & 0xff00) >> 8;
-                int g3 = (rgb3 & 0xff00) >> 8;
-                int g4 = (rgb4 & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                int b1 = (rgb1 & 0xff);
-                int b2 = (rgb2 & 0xff);
-                int b3 = (rgb3 & 0xff);
-                int b4 = (rgb4 & 0xff);
-                gm = ((r1 + g1 + b1) / 3) - ((r2 + g2 + b2) / 3);
-                gn = ((r3 + g3 + b3) / 3) - ((r4 + g4 + b4) / 3);
-                gFunc = Math.max(Math.abs(gm), Math.abs(gn));
-                fgAccum += ((r + g + b) / 3) * gFunc;
-                gAccum += gFunc;
-            }
-        }
-        return fgAccum / gAccum;
+    public BinaryImage sauvolaMask(int radius, double k) {
+        return new LocalThreshold(LocalThreshold.Method.SAUVOLA, radius, k).mask(source, pool);
     }
 
-    public int[] getGrayscaleArray() {
-        int[] arr = new int[(int) (image.getWidth() * image.getHeight())];
-        int i = 0;
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                int avg = (r + g + b) / 3;
-                arr[i] = (rgb & 0xff000000) + (avg << 16) + (avg << 8) + avg;
-                i++;
-            }
-        }
-        return arr;
+    public WritableImage otsuGlobalThreshold() {
+        return run(Operations.otsuThreshold());
     }
 
-    public WritableImage equalize() {
-        BufferedImage src = SwingFXUtils.fromFXImage(image, null);
-        BufferedImage nImg = new BufferedImage(src.getWidth(), src.getHeight(),
-                BufferedImage.TYPE_BYTE_GRAY);
-        WritableRaster wr = src.getRaster();
-        WritableRaster er = nImg.getRaster();
-        int totpix = wr.getWidth() * wr.getHeight();
-        int[] histogram = new int[256];
-
-        for (int x = 0; x < wr.getWidth(); x++) {
-            for (int y = 0; y < wr.getHeight(); y++) {
-                histogram[wr.getSample(x, y, 0)]++;
-            }
-        }
+    public WritableImage histThreshold() {
+        return run(Operations.histThreshold());
+    }
 
-        int[] chistogram = new int[256];
-        chistogram[0] = histogram[0];
-        for (int i = 1; i < 256; i++) {
-            chistogram[i] = chistogram[i - 1] + histogram[i];
-        }
+    /**
+     * Threshold used by histThreshold(), with the number of iterations it took to converge.
+     */
+    public IterativeThreshold findHistThreshold() {
+        return IterativeThreshold.of(source.histogram(pool).bins(Histogram.AVERAGE));
+    }
 
-        float[] arr = new float[256];
-        for (int i = 0; i < 256; i++) {
-            arr[i] = (float) ((chistogram[i] * 255.0) / (float) totpix);
-        }
+    public WritableImage gradThreshold() {
+        return run(Operations.gradThreshold());
+    }
 
-        for (int x = 0; x < wr.getWidth(); x++) {
-            for (int y = 0; y < wr.getHeight(); y++) {
-                int nVal = (int) arr[wr.getSample(x, y, 0)];
-                er.setSample(x, y, 0, nVal);
-            }
-        }
-        nImg.setData(er);
-        return convertToFxImage(nImg);
+    public WritableImage bradleyThreshold(int radius, double percent) {
+        return run(Operations.bradleyThreshold(radius, percent));
     }
 
-    private int getMin(int[] source) {
-        int min = 255;
-        for (int i = 255; i >= 0; i--) {
-            if (source[i] != 0) {
-                min = i;
-            }
-        }
-        return min;
+    public WritableImage sauvolaThreshold(int radius, double k) {
+        return run(Operations.sauvolaThreshold(radius, k));
     }
 
-    private int getMax(int[] source) {
-        int max = 0;
-        for (int i = 0; i < 256; i++) {
-            if (source[i] != 0) {
-                max = i;
-            }
-        }
-        return max;
+    public int[] getGrayscaleArray() {
+        return Filters.grayscaleArray(source);
+    }
+
+    public WritableImage equalize() {
+        return run(Operations.equalize());
+    }
+
+    public WritableImage clahe(int tiles, double clipLimit) {
+        return run(Operations.clahe(tiles, clipLimit));
     }
 
     public WritableImage gray() {
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                int gray = (r * 3 + g * 4 + b * 2) / 9;  //calculate the right gray value based on r, g and b intensities
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (gray << 16) + (gray << 8) + gray);
-            }
-        }
-        return wImage;
+        return run(Operations.gray());
     }
 
     public WritableImage noise(Float percent) {
-        Random rnd = new Random();
-
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                int RandomBrightness = (int) (rnd.nextFloat() * percent) + 100;
-                r = Math.min((r * RandomBrightness) / 100, 255);
-                g = Math.min((g * RandomBrightness) / 100, 255);
-                b = Math.min((b * RandomBrightness) / 100, 255);
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.noise(percent));
     }
 
     public WritableImage brightness(int percent) {
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                r = Math.min(255, (r * percent) / 100);
-                g = Math.min(255, (g * percent) / 100);
-                b = Math.min(255, (b * percent) / 100);
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.brightness(percent));
     }
 
     public WritableImage pseudoColors(long seed) {
-        Random rnd = new Random();
-        rnd.setSeed(seed);
-        int random = rnd.nextInt();
-
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + ((rgb << random) & 0xffffff));
-            }
-        }
-        return wImage;
+        return run(Operations.pseudoColors(seed));
     }
 
     public WritableImage horizonalWave(double nWaves, double percent, double offset) {
-        double waveFrequency = (nWaves * Math.PI * 2.0) / height;
-        double waveOffset = (offset * nWaves * Math.PI * 2.0) / 100.0;
-        double radius = (width * percent) / 100.0;
-
-        int index = 0;
-        for (int y = 0; y < height; y++) {
-            int xOffset = (int) Math.round(Math.sin(y * waveFrequency + waveOffset) * radius);
-            for (int x = 0; x < width; x++) {
-                if (xOffset >= 0 && xOffset < width) {
-                    Color color = pixelReader.getColor(xOffset, y);
-                    pixelWriter.setColor(index % width, index / width, color);
-                } else {
-                    pixelWriter.setColor(index % width, index / width, bgColor);
-                }
-                xOffset++;
-                index++;
-            }
-        }
-        return wImage;
+        return run(Operations.horizonalWave(nWaves, percent, offset, FxRasters.toArgb(bgColor)));
     }
 
     public WritableImage ripple(double nWaves, double percent, double offset) {
-        double angleRadians = (Math.PI * 2.0 * percent) / 100.0;
-        double maxDist = Math.sqrt(width * width + height * height);
-        double scale = (Math.PI * 2.0 * nWaves) / maxDist;
-        offset = (offset * Math.PI * 2.0) / 100.0;
-
-        int index = 0;
-        for (int y = -centerY; y < centerY; y++) {
-            for (int x = -centerX; x < centerX; x++) {
-                double a = Math.sin(Math.sqrt(x * x + y * y) * scale + offset) * angleRadians;
-                double ca = Math.cos(a);
-                double sa = Math.sin(a);
-
-                int xs = (int) (x * ca - y * sa) + centerX;
-                int ys = (int) (y * ca + x * sa) + centerY;
-                if (xs >= 0 && xs < width && ys >= 0 && ys < height) {
-                    Color color = pixelReader.getColor(xs, ys);
-                    pixelWriter.setColor(index % width, index / width, color);
-                } else {
-                    pixelWriter.setColor(index % width, index / width, bgColor);
-                }
-                index++;
-            }
-        }
-        return wImage;
+        return run(Operations.ripple(nWaves, percent, offset, FxRasters.toArgb(bgColor)));
     }
 
     public WritableImage transparency(int percent) {
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                int a = (rgb >> 24) & 0xff;
-                a = Math.min(255, (a * percent) / 100);
-                pixelWriter.setArgb(readX, readY, (rgb & 0xffffff) + (a << 24));
-            }
-        }
-        return wImage;
+        return run(Operations.transparency(percent));
     }
 
 
     public WritableImage makeTransparent(int r, int g, int b, double percent) {
-        percent *= 1.28;
-
-        //Makes given color within the given range transparent
-        int rMin = (int) (r - percent);
-        int gMin = (int) (g - percent);
-        int bMin = (int) (b - percent);
-
-        int rMax = (int) (r + percent);
-        int gMax = (int) (g + percent);
-        int bMax = (int) (b + percent);
-
-        for (int readY = 0; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                int rgb = pixelReader.getArgb(readX, readY);
-                r = (rgb & 0xff0000) >> 16;
-                g = (rgb & 0xff00) >> 8;
-                b = (rgb & 0xff);
-                if ((r >= rMin) && (r <= rMax) && (g >= gMin) && (g <= gMax) && (b >= bMin) && (b <= bMax))
-                    pixelWriter.setArgb(readX, readY, rgb & 0xffffff);
-            }
-        }
-        return wImage;
+        return run(Operations.makeTransparent(r, g, b, percent));
     }
 
     public WritableImage lineArt(int intensity) {
-        //The first line is undefined, give it the color of bgColor
-        for (int readY = 0; readY < 1; readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                pixelWriter.setArgb(readX, readY, 0);
-            }
-        }
-
-        for (int readY = 1; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                //Read pixel to the left
-                int rgb1 = 0;
-                if (readX > 0)
-                    rgb1 = pixelReader.getArgb(readX - 1, readY);
-                else
-                    rgb1 = pixelReader.getArgb(readX, readY);
-                int r1 = (rgb1 & 0xff0000) >> 16;
-                int g1 = (rgb1 & 0xff00) >> 8;
-                int b1 = (rgb1 & 0xff);
-
-                //Read pixel above
-                int rgb2 = pixelReader.getArgb(readX, readY - 1);
-                int r2 = (rgb2 & 0xff0000) >> 16;
-                int g2 = (rgb2 & 0xff00) >> 8;
-                int b2 = (rgb2 & 0xff);
-
-                //Read current pixel
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-
-                r = Math.min((Math.abs(r2 - r) + Math.abs(r1 - r)) * intensity, 255);
-                g = Math.min((Math.abs(g2 - g) + Math.abs(g1 - g)) * intensity, 255);
-                b = Math.min((Math.abs(b2 - b) + Math.abs(b1 - b)) * intensity, 255);
-
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
-        }
-        return wImage;
+        return run(Operations.lineArt(intensity));
     }
 
     public WritableImage graylineArt(int intensity) {
-        //The first line is undefined, give it the color of bgColor
-        for (int readY = 0; readY < 1; readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                pixelWriter.setArgb(readX, readY, 0);
-            }
+        return run(Operations.graylineArt(intensity));
+    }
+
+    public WritableImage emboss(double angle, double power, int red, int green, int blue) {
+        return run(Operations.emboss(angle, power, red, green, blue));
+    }
+
+    public WritableImage grayemboss(double angle, double power, int red, int green, int blue) {
+        return run(Operations.grayemboss(angle, power, red, green, blue));
+    }
+
+    public WritableImage zoom(int percent) {
+        return run(Operations.zoom(percent));
+    }
+
+    /**
+     * Runs a chain of point operations over the source in a single pass,
+     * e.g. new PointChain().gray().then(Lut.pow(2, max)).then(Lut.invert()).
+     */
+    public WritableImage apply(PointChain chain) {
+        ArgbRaster src = source;
+        ArgbRaster result = new ArgbRaster(src.width, src.height);
+        RowBands.run(pool, src.height, (y0, y1) -> chain.apply(src, result, y0 * src.width, y1 * src.width));
+        result.modified();
+        return show(result);
+    }
+
+    /**
+     * Shows the source image itself, at the preview resolution when there is one.
+     */
+    public WritableImage original() {
+        return show(source);
+    }
+
+    /**
+     * Shows the source image as the user's next step, a {@link Operations#copy()} in the
+     * undo history, so that undo goes back to what was shown before. The step keeps no
+     * snapshot. JavaFX thread only.
+     */
+    public WritableImage showOriginal() {
+        return show(History.record(Operations.copy(), source, false));
+    }
+
+    /**
+     * Runs an operation on the source image and shows the result in wImage.
+     */
+    public WritableImage run(Operation op) {
+        return show(compute(op, Progress.NONE));
+    }
+
+    /**
+     * Runs an operation on the source image into a new raster without touching wImage,
+     * so it can be called off the JavaFX thread. Pass the result to {@link #show(ArgbRaster)}.
+     * With a cache the raster may be shared, so it must not be written.
+     */
+    public ArgbRaster compute(Operation op, Progress progress) {
+        ArgbRaster src = source;
+        ArgbRaster cached = cache != null ? cache.get(src, op) : null;
+        return cached != null ? cached : computeAndCache(src, op, progress);
+    }
+
+    private ArgbRaster computeAndCache(ArgbRaster src, Operation op, Progress progress) {
+        ArgbRaster result = new ArgbRaster(src.width, src.height);
+        op.apply(src, result, pool, progress);
+        if (cache != null) {
+            cache.put(src, op, result);
         }
+        return result;
+    }
 
-        for (int readY = 1; readY < image.getHeight(); readY++) {
-            for (int readX = 0; readX < image.getWidth(); readX++) {
-                //Read pixel to the left
-                int rgb1 = 0;
-                if (readX > 0)
-                    rgb1 = pixelReader.getArgb(readX - 1, readY);
-                else
-                    rgb1 = pixelReader.getArgb(readX, readY);
-                int r1 = (rgb1 & 0xff0000) >> 16;
-                int g1 = (rgb1 & 0xff00) >> 8;
-                int b1 = (rgb1 & 0xff);
-                int gray = (r1 * 3 + g1 * 4 + b1 * 2) / 9;  //calculate the right gray value based on r, g and b intensities
-                r1 = gray;
-                g1 = gray;
-                b1 = gray;
-
-                //Read pixel above
-                int rgb2 = pixelReader.getArgb(readX, readY - 1);
-                int r2 = (rgb2 & 0xff0000) >> 16;
-                int g2 = (rgb2 & 0xff00) >> 8;
-                int b2 = (rgb2 & 0xff);
-                gray = (r2 * 3 + g2 * 4 + b2 * 2) / 9;  //calculate the right gray value based on r, g and b intensities
-                r2 = gray;
-                g2 = gray;
-                b2 = gray;
-
-                //Read current pixel
-                int rgb = pixelReader.getArgb(readX, readY);
-                int r = (rgb & 0xff0000) >> 16;
-                int g = (rgb & 0xff00) >> 8;
-                int b = (rgb & 0xff);
-                gray = (r * 3 + g * 4 + b * 2) / 9;  //calculate the right gray value based on r, g and b intensities
-                r = gray;
-                g = gray;
-                b = gray;
-
-                r = Math.min((Math.abs(r2 - r) + Math.abs(r1 - r)) * intensity, 255);
-                g = Math.min((Math.abs(g2 - g) + Math.abs(g1 - g)) * intensity, 255);
-                b = Math.min((Math.abs(b2 - b) + Math.abs(b1 - b)) * intensity, 255);
-
-                pixelWriter.setArgb(readX, readY, (rgb & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
+    /**
+     * Computes op like {@link #compute(Operation, Progress)} and packs the result for the undo history.
+     */
+    public History.Step computeStep(Operation op, Progress progress) {
+        ArgbRaster src = source;
+        ArgbRaster cached = cache != null ? cache.get(src, op) : null;
+        if (cached != null) {
+            return History.record(op, cached, false);
         }
-        return wImage;
+        return History.record(op, computeAndCache(src, op, progress));
     }
 
-    public WritableImage emboss(double angle, double power, int red, int green, int blue) {
-        double angleRadians = angle / (180.0 / Math.PI);
-        int light = (int) (Math.round(Math.sin(angleRadians)) * width) + (int) (Math.round(Math.cos(angleRadians))) - 1;
-
-        for (int readY = 1; readY < height; readY++) {
-            for (int readX = 0; readX < width; readX++) {
-
-                //Read current pixel
-                int rgb1 = pixelReader.getArgb(readX, readY);
-                int r1 = (rgb1 & 0xff0000) >> 16;
-                int g1 = (rgb1 & 0xff00) >> 8;
-                int b1 = (rgb1 & 0xff);
-
-                //Read pixel in the direction given by angle
-                int index = readX + readY * width;
-                int rgb2 = pixelReader.getArgb((index - light) % width, (index - light) / width);
-                int r2 = (rgb2 & 0xff0000) >> 16;
-                int g2 = (rgb2 & 0xff00) >> 8;
-                int b2 = (rgb2 & 0xff);
-
-                int r = Math.min(Math.max(red + (int) ((r2 - r1) * power), 0), 255);
-                int g = Math.min(Math.max(green + (int) ((g2 - g1) * power), 0), 255);
-                int b = Math.min(Math.max(blue + (int) ((b2 - b1) * power), 0), 255);
-
-                pixelWriter.setArgb(readX, readY, (rgb1 & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
+    /**
+     * Adds a computed step to the undo history and shows its result. JavaFX thread only.
+     */
+    public WritableImage show(History.Step step) {
+        history.push(step);
+        return show(step.takeResult());
+    }
+
+    public boolean canUndo() {
+        return history.canUndo();
+    }
+
+    public boolean canRedo() {
+        return history.canRedo();
+    }
+
+    /**
+     * Moves back one step and returns it, or null when back at the loaded image.
+     * Pass the step to {@link #restore(History.Step, Progress)} to get its pixels.
+     */
+    public History.Step undo() {
+        return history.undo();
+    }
+
+    public History.Step redo() {
+        return history.redo();
+    }
+
+    /**
+     * Pixels of a history step, from its snapshot or recomputed from the source image.
+     * Can be called off the JavaFX thread.
+     */
+    public ArgbRaster restore(History.Step step, Progress progress) {
+        ArgbRaster src = source;
+        if (step == null) {
+            return src;
         }
+        ArgbRaster snapshot = History.snapshot(step, src.width, src.height);
+        return snapshot != null ? snapshot : compute(step.op(), progress);
+    }
+
+    /**
+     * Makes a computed raster the current result and writes it into wImage. JavaFX thread only.
+     * When the preview size has changed wImage is replaced by one of the new size.
+     */
+    public WritableImage show(ArgbRaster result) {
+        resizeDisplay(result.width, result.height);
+        target = result;
+        mask = null;
+        display.show(result);
+        return publish();
+    }
 
-        //Borders are undefined, fill with specified color
-        int color = (red << 16) + (green << 8) + blue;
+    /**
+     * Shows a black and white mask in wImage, expanding it straight into the display
+     * buffer. JavaFX thread only.
+     */
+    public WritableImage show(BinaryImage mask) {
+        resizeDisplay(mask.width, mask.height);
+        target = null;
+        this.mask = mask;
+        display.show(mask);
+        return publish();
+    }
 
-        for (int readX = 0; readX < width; readX++) {
-            int rgb1 = pixelReader.getArgb(readX, 0);
-            pixelWriter.setArgb(readX, 0, (rgb1 & 0xff000000) + color);
-            int rgb2 = pixelReader.getArgb(readX, height - 1);
-            pixelWriter.setArgb(readX, height - 1, (rgb2 & 0xff000000) + color);
+    /**
+     * Adds a step for op to the undo history and shows its result, given as a mask such as
+     * {@link #bitSliceMask(int)}. The step keeps no snapshot and is recomputed from op when
+     * it is visited again. JavaFX thread only.
+     */
+    public WritableImage show(Operation op, BinaryImage mask) {
+        history.push(History.record(op, mask.width, mask.height));
+        return show(mask);
+    }
+
+    private void resizeDisplay(int w, int h) {
+        if (w != display.width || h != display.height) {
+            display = new DisplayBuffer(w, h);
+            wImage = display.image;
         }
+    }
 
-        for (int readY = 0; readY < height; readY++) {
-            int rgb1 = pixelReader.getArgb(0, readY);
-            pixelWriter.setArgb(0, readY, (rgb1 & 0xff000000) + color);
-            int rgb2 = pixelReader.getArgb(width - 1, readY);
-            pixelWriter.setArgb(width - 1, readY, (rgb2 & 0xff000000) + color);
+    /**
+     * Largest power of two to divide the image by so that it still covers a view of the
+     * given size in pixels, 1 when the view is as large as the image.
+     */
+    public int previewFactor(double viewWidth, double viewHeight) {
+        int factor = 1;
+        while (full.width / (factor * 2) >= viewWidth && full.height / (factor * 2) >= viewHeight) {
+            factor *= 2;
         }
-        return wImage;
+        return factor;
     }
 
-    public WritableImage grayemboss(double angle, double power, int red, int green, int blue) {
-        double angleRadians = angle / (180.0 / Math.PI);
-        int light = (int) (Math.round(Math.sin(angleRadians)) * width) + (int) (Math.round(Math.cos(angleRadians))) - 1;
-
-        for (int readY = 1; readY < height; readY++) {
-            for (int readX = 0; readX < width; readX++) {
-
-                //Read current pixel
-                int rgb1 = pixelReader.getArgb(readX, readY);
-                int r1 = (rgb1 & 0xff0000) >> 16;
-                int g1 = (rgb1 & 0xff00) >> 8;
-                int b1 = (rgb1 & 0xff);
-                int gray = (r1 * 3 + g1 * 4 + b1 * 2) / 9;  //calculate the right gray value based on r, g and b intensities
-                r1 = gray;
-                g1 = gray;
-                b1 = gray;
-
-                //Read pixel in the direction given by angle
-                int index = readX + readY * width;
-                int rgb2 = pixelReader.getArgb((index - light) % width, (index - light) / width);
-                int r2 = (rgb2 & 0xff0000) >> 16;
-                int g2 = (rgb2 & 0xff00) >> 8;
-                int b2 = (rgb2 & 0xff);
-                gray = (r2 * 3 + g2 * 4 + b2 * 2) / 9;  //calculate the right gray value based on r, g and b intensities
-                r2 = gray;
-                g2 = gray;
-                b2 = gray;
-
-                int r = Math.min(Math.max(red + (int) ((r2 - r1) * power), 0), 255);
-                int g = Math.min(Math.max(green + (int) ((g2 - g1) * power), 0), 255);
-                int b = Math.min(Math.max(blue + (int) ((b2 - b1) * power), 0), 255);
-
-                pixelWriter.setArgb(readX, readY, (rgb1 & 0xff000000) + (r << 16) + (g << 8) + b);
-            }
+    /**
+     * Makes filters work on the full image divided by factor from now on; the first call for
+     * a new factor downscales the image. Results already computed keep their size until
+     * they are replaced. Can be called off the JavaFX thread.
+     */
+    public synchronized void usePreview(int factor) {
+        if (factor == previewFactor) {
+            return;
+        }
+        ArgbRaster proxy = full;
+        if (factor > 1) {
+            proxy = new ArgbRaster((full.width + factor - 1) / factor, (full.height + factor - 1) / factor);
+            ArgbRaster dst = proxy;
+            RowBands.run(pool, dst.height, (y0, y1) -> Filters.downscale(full, dst, factor, y0, y1));
         }
+        previewFactor = factor;
+        width = proxy.width;
+        height = proxy.height;
+        source = proxy;
+    }
 
-        //Borders are undefined, fill with specified color
-        int color = (red << 16) + (green << 8) + blue;
+    public int previewFactor() {
+        return previewFactor;
+    }
 
-        for (int readX = 0; readX < width; readX++) {
-            int rgb1 = pixelReader.getArgb(readX, 0);
-            pixelWriter.setArgb(readX, 0, (rgb1 & 0xff000000) + color);
-            int rgb2 = pixelReader.getArgb(readX, height - 1);
-            pixelWriter.setArgb(readX, height - 1, (rgb2 & 0xff000000) + color);
+    /**
+     * Replays op on the full resolution image, whatever the preview size; null gives the
+     * image itself. Can be called off the JavaFX thread.
+     */
+    public ArgbRaster render(Operation op, Progress progress) {
+        if (op == null) {
+            return full;
         }
+        ArgbRaster cached = cache != null ? cache.get(full, op) : null;
+        return cached != null ? cached : computeAndCache(full, op, progress);
+    }
 
-        for (int readY = 0; readY < height; readY++) {
-            int rgb1 = pixelReader.getArgb(0, readY);
-            pixelWriter.setArgb(0, readY, (rgb1 & 0xff000000) + color);
-            int rgb2 = pixelReader.getArgb(width - 1, readY);
-            pixelWriter.setArgb(width - 1, readY, (rgb2 & 0xff000000) + color);
-        }
-        return wImage;
+    /**
+     * Pool used to run filters over row bands in parallel; null runs them on the calling thread.
+     * Parallel and sequential runs give identical output.
+     */
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
     }
 
-    public WritableImage zoom(int percent) {
-        int bg = 0;
-
-        int index = 0;
-        for (int y = -centerY; y < centerY; y++) {
-            for (int x = -centerX; x < centerX; x++) {
-                int xs = (x * percent) / 100 + centerX;
-                int ys = (y * percent) / 100 + centerY;
-                index++;
-                if (index >= width * height)
-                    break;
-                if (xs >= 0 && xs < width && ys >= 0 && ys < height) {
-                    int rgb = pixelReader.getArgb(xs, ys);
-                    pixelWriter.setArgb(index % width, index / width, rgb);
-                } else if (index < width * height) {
-                    pixelWriter.setArgb(index % width, index / width, bg);
-                }
-            }
-        }
-        return wImage;
+    /**
+     * Cache for operation results, which can be shared with other processors; null disables it.
+     */
+    public void setCache(ResultCache cache) {
+        this.cache = cache;
+    }
+
+    /**
+     * Called on the JavaFX thread each time wImage has been rewritten, e.g. to refresh a live histogram.
+     */
+    public void setOnPublish(Runnable onPublish) {
+        this.onPublish = onPublish;
     }
 
-    private static WritableImage convertToFxImage(BufferedImage image) {
-        WritableImage wr = null;
-        if (image != null) {
-            wr = new WritableImage(image.getWidth(), image.getHeight());
-            PixelWriter pw = wr.getPixelWriter();
-            for (int x = 0; x < image.getWidth(); x++) {
-                for (int y = 0; y < image.getHeight(); y++) {
-                    pw.setArgb(x, y, image.getRGB(x, y));
-                }
-            }
+    private WritableImage publish() {
+        if (onPublish != null) {
+            onPublish.run();
         }
-        return wr;
+        return wImage;
     }
 
 }
\ No newline at end of file
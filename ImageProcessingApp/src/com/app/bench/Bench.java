@@ -0,0 +1,96 @@
+package com.app.bench;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Minimal timing harness: runs a few warmup iterations, then reports
+ * the average wall time of the measured ones.
+ */
+public final class Bench {
+
+    private Bench() {
+    }
+
+    public static double averageMillis(int warmup, int iterations, Runnable task) {
+        return measure(warmup, iterations, task).avgMillis;
+    }
+
+    /**
+     * Like averageMillis, but also records heap allocation and GC activity of the measured iterations.
+     * Allocation is summed over all live threads, so work done on pool threads is included.
+     */
+    public static Result measure(int warmup, int iterations, Runnable task) {
+        for (int i = 0; i < warmup; i++) {
+            task.run();
+        }
+        long allocated = allocatedBytes();
+        long gcCount = gcCount();
+        long gcMillis = gcMillis();
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            task.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        return new Result(elapsed / 1e6 / iterations,
+                (allocatedBytes() - allocated) / iterations,
+                gcCount() - gcCount,
+                gcMillis() - gcMillis);
+    }
+
+    public static class Result {
+        public final double avgMillis;
+        public final long bytesPerOp;
+        public final long gcCount;
+        public final long gcMillis;
+
+        Result(double avgMillis, long bytesPerOp, long gcCount, long gcMillis) {
+            this.avgMillis = avgMillis;
+            this.bytesPerOp = bytesPerOp;
+            this.gcCount = gcCount;
+            this.gcMillis = gcMillis;
+        }
+
+        public double opsPerSecond() {
+            return 1000.0 / avgMillis;
+        }
+
+        /**
+         * Allocation rate in MB/s.
+         */
+        public double allocationRate() {
+            return bytesPerOp / 1e6 / (avgMillis / 1000.0);
+        }
+    }
+
+    private static long allocatedBytes() {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long total = 0;
+        for (long bytes : ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            if (bytes > 0) {
+                total += bytes;
+            }
+        }
+        return total;
+    }
+
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(0, gc.getCollectionCount());
+        }
+        return count;
+    }
+
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(0, gc.getCollectionTime());
+        }
+        return millis;
+    }
+}
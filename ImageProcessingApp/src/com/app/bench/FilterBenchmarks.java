@@ -0,0 +1,325 @@
+package com.app.bench;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.regex.Pattern;
+
+import javax.imageio.ImageIO;
+
+import com.app.util.ArgbRaster;
+import com.app.util.AwtRasters;
+import com.app.util.BinaryImage;
+import com.app.util.Filters;
+import com.app.util.Histogram;
+import com.app.util.LocalThreshold;
+import com.app.util.Lut;
+import com.app.util.MappedRaster;
+import com.app.util.Operation;
+import com.app.util.Operations;
+import com.app.util.OtsuProcessor;
+import com.app.util.PointChain;
+import com.app.util.Progress;
+import com.app.util.Simd;
+import com.app.util.Warp;
+
+/**
+ * Benchmark suite for every operation behind ImageProcessor and for OtsuProcessor.doThreshold.
+ * Runs headless on the images under samples/ and on synthetic inputs of the requested sizes,
+ * sequentially and on a ForkJoinPool, and reports average time, throughput, allocation and GC.
+ * <p>
+ * When the classes of src-vector are on the class path and the JVM runs with
+ * --add-modules jdk.incubator.vector, the operations with {@link Simd} kernels are also
+ * timed sequentially with the scalar and the vector kernels; the run exits with status 1
+ * if the two give different pixels.
+ * <p>
+ * Options:
+ * <pre>
+ *   -sizes 1,12,50        synthetic inputs in megapixels (default 1,12; 50 MP needs about -Xmx4g)
+ *   -samples dir          directory scanned for sample images (default samples, "none" to skip)
+ *   -ops regex            only benchmarks whose name matches
+ *   -modes seq,par        execution modes (default both)
+ *   -warmup N             warmup iterations (default 2)
+ *   -iterations N         measured iterations (default 5)
+ *   -save file.csv        write the results
+ *   -baseline file.csv    compare with saved results and exit with status 1 on regressions
+ *   -tolerance percent    allowed slowdown against the baseline (default 15)
+ * </pre>
+ */
+public class FilterBenchmarks {
+
+    static final String[] SPECS = {
+            "copy", "invert", "addConst:10", "substractConst:10", "log", "pow:2", "gray", "brightness:120",
+            "linearContrast", "otsu", "histThreshold", "gradThreshold", "bradley:25:15.0", "sauvola:25:0.34", "bitSlice:7", "equalize", "clahe:8:2.0",
+            "noise:20", "pseudoColors:42", "horizonalWave:3:5:0", "ripple:3:5:0", "transparency:50",
+            "makeTransparent:200:200:200:10", "lineArt:2", "graylineArt:2",
+            "emboss:45:1.5:128:128:128", "grayemboss:45:1.5:128:128:128", "zoom:150",
+            "horizonalWave:3:5:0:-16777216:bilinear", "ripple:3:5:0:-16777216:bilinear", "zoom:150:bilinear"
+    };
+
+    /**
+     * Operations whose kernels have a vector version.
+     */
+    static final String[] SIMD_SPECS = {
+            "gray", "invert", "brightness:120", "gray,brightness:50", "transparency:50", "otsu", "histThreshold"
+    };
+
+    interface Case {
+        void run(ArgbRaster src, ArgbRaster dst, ForkJoinPool pool);
+    }
+
+    public static void main(String[] args) throws IOException {
+        System.setProperty("java.awt.headless", "true");
+        Map<String, String> opts = new HashMap<>();
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            opts.put(args[i], args[i + 1]);
+        }
+        Pattern filter = Pattern.compile(opts.getOrDefault("-ops", ".*"));
+        List<String> modes = Arrays.asList(opts.getOrDefault("-modes", "seq,par").split(","));
+        int warmup = Integer.parseInt(opts.getOrDefault("-warmup", "2"));
+        int iterations = Integer.parseInt(opts.getOrDefault("-iterations", "5"));
+        double tolerance = Double.parseDouble(opts.getOrDefault("-tolerance", "15"));
+
+        Map<String, ArgbRaster> inputs = new LinkedHashMap<>();
+        String samples = opts.getOrDefault("-samples", "samples");
+        if (!samples.equals("none")) {
+            loadSamples(new File(samples), inputs);
+        }
+        for (String mp : opts.getOrDefault("-sizes", "1,12").split(",")) {
+            inputs.put(mp + "MP", synthetic(Integer.parseInt(mp)));
+        }
+
+        Map<String, Case> cases = new LinkedHashMap<>();
+        for (String spec : SPECS) {
+            Operation op = Operations.parse(spec);
+            cases.put(spec, op::apply);
+        }
+        cases.put("OtsuProcessor.doThreshold(plane)", (src, dst, pool) -> new OtsuProcessor().doThreshold(luminance(src), null));
+        cases.put("OtsuProcessor.doThreshold(histogram)", (src, dst, pool) ->
+                new OtsuProcessor().doThreshold(src.histogram(pool).bins(Histogram.AVERAGE)));
+        cases.put("BinaryImage.threshold(otsu)", (src, dst, pool) ->
+                BinaryImage.threshold(src, Operations.otsuLevel(src, pool), pool));
+        cases.put("LocalThreshold.mask(sauvola:25)", (src, dst, pool) ->
+                new LocalThreshold(LocalThreshold.Method.SAUVOLA, 25, 0.34).mask(src, pool));
+        cases.put("BinaryImage.bitSlice:7", (src, dst, pool) -> BinaryImage.bitSlice(src, 7, pool));
+        cases.put("chain:gray>pow>brightness>invert (one LUT pass)", (src, dst, pool) ->
+                new PointChain().gray().then(Lut.pow(2, Filters.maxGray(src)))
+                        .then(Lut.brightness(120)).then(Lut.invert()).apply(src, dst));
+        cases.put("chain:gray>pow>brightness>invert (four passes)", (src, dst, pool) -> {
+            ArgbRaster tmp = new ArgbRaster(src.width, src.height);
+            Operations.gray().apply(src, dst, pool);
+            Operations.pow(2).apply(dst, tmp, pool);
+            Operations.brightness(120).apply(tmp, dst, pool);
+            Operations.invert().apply(dst, tmp, pool);
+        });
+        // Warps reuse their coordinate map after the first run; this times building it too
+        Operation ripple = Operations.parse("ripple:3:5:0");
+        cases.put("ripple:3:5:0 (uncached map)", (src, dst, pool) -> {
+            Warp.clearCache();
+            ripple.apply(src, dst, pool);
+        });
+        // The same operations on a memory-mapped copy of the input, one band at a time
+        Map<ArgbRaster, MappedRaster[]> mapped = new IdentityHashMap<>();
+        for (String spec : new String[]{"linearContrast", "gradThreshold", "lineArt:2"}) {
+            Operation op = Operations.parse(spec);
+            cases.put("mapped:" + spec, (src, dst, pool) -> {
+                MappedRaster[] m = mapped.computeIfAbsent(src, FilterBenchmarks::mapped);
+                m[0].apply(op, m[1], pool, Progress.NONE);
+            });
+        }
+
+        ForkJoinPool parallel = ForkJoinPool.commonPool();
+        Map<String, Double> results = new LinkedHashMap<>();
+        System.out.printf("%-50s %-14s %-4s %10s %9s %9s %10s %10s %5s%n",
+                "benchmark", "input", "mode", "avg ms", "ops/s", "MP/s", "alloc MB", "alloc MB/s", "gc");
+        for (Map.Entry<String, Case> c : cases.entrySet()) {
+            if (!filter.matcher(c.getKey()).find()) {
+                continue;
+            }
+            for (Map.Entry<String, ArgbRaster> in : inputs.entrySet()) {
+                ArgbRaster src = in.getValue();
+                ArgbRaster dst = new ArgbRaster(src.width, src.height);
+                for (String mode : modes) {
+                    ForkJoinPool pool = mode.equals("par") ? parallel : null;
+                    Bench.Result r = Bench.measure(warmup, iterations, () -> c.getValue().run(src, dst, pool));
+                    System.out.printf("%-50s %-14s %-4s %10.2f %9.2f %9.1f %10.1f %10.1f %5d%n",
+                            c.getKey(), in.getKey(), mode, r.avgMillis, r.opsPerSecond(),
+                            src.size() / 1e6 * r.opsPerSecond(), r.bytesPerOp / 1e6, r.allocationRate(), r.gcCount);
+                    results.put(c.getKey() + "|" + in.getKey() + "|" + mode, r.avgMillis);
+                }
+            }
+        }
+
+        int mismatches = Simd.isAvailable() ? compareSimd(inputs, filter, warmup, iterations)
+                : 0;
+        if (!Simd.isAvailable()) {
+            System.out.println("Vector kernels not loaded; put src-vector on the class path and run with"
+                    + " --add-modules jdk.incubator.vector to compare them");
+        }
+
+        for (MappedRaster[] m : mapped.values()) {
+            m[0].close();
+            m[1].close();
+        }
+
+        if (opts.containsKey("-save")) {
+            try (PrintWriter out = new PrintWriter(opts.get("-save"), StandardCharsets.UTF_8.name())) {
+                for (Map.Entry<String, Double> e : results.entrySet()) {
+                    out.println(e.getKey() + "|" + e.getValue());
+                }
+            }
+        }
+        if (opts.containsKey("-baseline")) {
+            int regressions = compare(new File(opts.get("-baseline")), results, tolerance);
+            if (regressions > 0) {
+                System.exit(1);
+            }
+        }
+        if (mismatches > 0) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Times every SIMD_SPECS chain sequentially with the scalar and with the vector kernels
+     * and checks that both give the same pixels.
+     *
+     * @return number of chains whose results differ
+     */
+    static int compareSimd(Map<String, ArgbRaster> inputs, Pattern filter, int warmup, int iterations) {
+        System.out.printf("%n%-50s %-14s %10s %10s %8s  %s%n", "simd", "input", "scalar ms", "vector ms", "speedup", "pixels");
+        int mismatches = 0;
+        for (String spec : SIMD_SPECS) {
+            if (!filter.matcher(spec).find()) {
+                continue;
+            }
+            List<Operation> ops = Operations.parseList(spec);
+            for (Map.Entry<String, ArgbRaster> in : inputs.entrySet()) {
+                ArgbRaster src = in.getValue();
+                ArgbRaster[] out = new ArgbRaster[2];
+                double[] millis = new double[2];
+                for (int k = 0; k < 2; k++) {
+                    Simd.setEnabled(k == 1);
+                    ArgbRaster a = new ArgbRaster(src.width, src.height);
+                    ArgbRaster b = new ArgbRaster(src.width, src.height);
+                    millis[k] = Bench.measure(warmup, iterations, () -> {
+                        ArgbRaster from = src;
+                        ArgbRaster to = a;
+                        for (Operation op : ops) {
+                            op.apply(from, to, null);
+                            from = to;
+                            to = to == a ? b : a;
+                        }
+                    }).avgMillis;
+                    out[k] = ops.size() % 2 == 1 ? a : b;
+                }
+                Simd.setEnabled(true);
+                boolean exact = Arrays.equals(out[0].pixels, 0, src.size(), out[1].pixels, 0, src.size());
+                if (!exact) {
+                    mismatches++;
+                }
+                System.out.printf("%-50s %-14s %10.2f %10.2f %7.2fx  %s%n", spec, in.getKey(), millis[0], millis[1],
+                        millis[0] / millis[1], exact ? "identical" : "DIFFERENT");
+            }
+        }
+        return mismatches;
+    }
+
+    /**
+     * Prints every result that is slower than the baseline by more than tolerance percent.
+     *
+     * @return number of regressions
+     */
+    static int compare(File baselineFile, Map<String, Double> results, double tolerance) throws IOException {
+        int regressions = 0;
+        for (String line : Files.readAllLines(baselineFile.toPath(), StandardCharsets.UTF_8)) {
+            int sep = line.lastIndexOf('|');
+            if (sep < 0) {
+                continue;
+            }
+            String key = line.substring(0, sep);
+            double baseline = Double.parseDouble(line.substring(sep + 1));
+            Double now = results.get(key);
+            if (now != null && now > baseline * (1 + tolerance / 100.0)) {
+                regressions++;
+                System.out.printf("REGRESSION %s: %.2f ms -> %.2f ms (%+.0f%%)%n",
+                        key.replace('|', ' '), baseline, now, (now / baseline - 1) * 100);
+            }
+        }
+        System.out.println(regressions == 0 ? "No regressions against " + baselineFile
+                : regressions + " regression(s) against " + baselineFile);
+        return regressions;
+    }
+
+    /**
+     * Source and destination of the mapped cases, the source holding a copy of src.
+     */
+    static MappedRaster[] mapped(ArgbRaster src) {
+        try {
+            MappedRaster in = MappedRaster.create(src.width, src.height);
+            in.write(0, src);
+            return new MappedRaster[]{in, MappedRaster.create(src.width, src.height)};
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static void loadSamples(File dir, Map<String, ArgbRaster> inputs) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File f : files) {
+            if (f.isDirectory()) {
+                loadSamples(f, inputs);
+            } else {
+                BufferedImage image = ImageIO.read(f);
+                if (image != null) {
+                    inputs.put(f.getName(), AwtRasters.read(image));
+                }
+            }
+        }
+    }
+
+    /**
+     * Deterministic 4:3 test image of roughly the given number of megapixels:
+     * smooth gradients with some noise, so thresholds and histograms are not degenerate.
+     */
+    static ArgbRaster synthetic(int megapixels) {
+        int width = (int) Math.sqrt(megapixels * 1e6 * 4 / 3);
+        int height = (int) (megapixels * 1e6 / width);
+        ArgbRaster raster = new ArgbRaster(width, height);
+        Random rnd = new Random(megapixels);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = (x * 255 / width + rnd.nextInt(16)) & 0xff;
+                int g = (y * 255 / height + rnd.nextInt(16)) & 0xff;
+                int b = ((x + y) * 255 / (width + height) + rnd.nextInt(16)) & 0xff;
+                raster.pixels[x + y * width] = 0xff000000 | (r << 16) | (g << 8) | b;
+            }
+        }
+        return raster;
+    }
+
+    private static byte[] luminance(ArgbRaster src) {
+        byte[] out = new byte[src.size()];
+        for (int i = 0; i < out.length; i++) {
+            int rgb = src.pixels[i];
+            out[i] = (byte) ((((rgb >> 16) & 0xff) + ((rgb >> 8) & 0xff) + (rgb & 0xff)) / 3);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,119 @@
+package com.app.bench;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+
+import com.app.ImageProcessor;
+import javafx.application.Platform;
+import javafx.scene.image.PixelReader;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+
+/**
+ * Compares the per-pixel PixelReader.getArgb/PixelWriter.setArgb access the filters
+ * used to do against the bulk int[] raster path, filter by filter.
+ * <p>
+ * Usage: RasterBenchmark [width height [iterations]]
+ */
+public class RasterBenchmark {
+
+    public static void main(String[] args) {
+        int width = args.length > 1 ? Integer.parseInt(args[0]) : 4000;
+        int height = args.length > 1 ? Integer.parseInt(args[1]) : 3000;
+        int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+        Platform.startup(() -> {
+        });
+        try {
+            WritableImage image = syntheticImage(width, height);
+            WritableImage out = new WritableImage(width, height);
+            ImageProcessor ip = new ImageProcessor(image);
+
+            Map<String, Runnable[]> cases = new LinkedHashMap<>();
+            cases.put("copy", pair(image, out, rgb -> rgb, ip::copy));
+            cases.put("invert", pair(image, out, rgb -> (rgb & 0xff000000) | (~rgb & 0xffffff), ip::invert));
+            cases.put("addConst", pair(image, out, rgb -> rgb + 0x0a0a0a, () -> ip.addConst(10)));
+            cases.put("log", pair(image, out, RasterBenchmark::logPixel, ip::log));
+            cases.put("gray", pair(image, out, RasterBenchmark::grayPixel, ip::gray));
+            cases.put("brightness", pair(image, out, RasterBenchmark::brightnessPixel, () -> ip.brightness(120)));
+            cases.put("lineArt", new Runnable[]{() -> legacyLineArt(image, out, 2), () -> ip.lineArt(2)});
+
+            System.out.printf("%dx%d, %d iterations%n", width, height, iterations);
+            System.out.printf("%-15s %12s %12s %9s%n", "filter", "per-pixel ms", "bulk ms", "speedup");
+            for (Map.Entry<String, Runnable[]> e : cases.entrySet()) {
+                double legacy = Bench.averageMillis(1, iterations, e.getValue()[0]);
+                double bulk = Bench.averageMillis(1, iterations, e.getValue()[1]);
+                System.out.printf("%-15s %12.1f %12.1f %8.1fx%n", e.getKey(), legacy, bulk, legacy / bulk);
+            }
+        } finally {
+            Platform.exit();
+        }
+    }
+
+    static WritableImage syntheticImage(int width, int height) {
+        WritableImage image = new WritableImage(width, height);
+        PixelWriter writer = image.getPixelWriter();
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                writer.setArgb(x, y, 0xff000000 | ((x * 7) & 0xff) << 16 | ((y * 3) & 0xff) << 8 | ((x ^ y) & 0xff));
+            }
+        }
+        return image;
+    }
+
+    private static Runnable[] pair(WritableImage image, WritableImage out, IntUnaryOperator pixelOp, Runnable bulk) {
+        return new Runnable[]{() -> legacyPointOp(image, out, pixelOp), bulk};
+    }
+
+    /**
+     * The access pattern every filter used before the raster engine.
+     */
+    private static void legacyPointOp(WritableImage image, WritableImage out, IntUnaryOperator op) {
+        PixelReader reader = image.getPixelReader();
+        PixelWriter writer = out.getPixelWriter();
+        for (int readY = 0; readY < image.getHeight(); readY++) {
+            for (int readX = 0; readX < image.getWidth(); readX++) {
+                writer.setArgb(readX, readY, op.applyAsInt(reader.getArgb(readX, readY)));
+            }
+        }
+    }
+
+    private static void legacyLineArt(WritableImage image, WritableImage out, int intensity) {
+        PixelReader reader = image.getPixelReader();
+        PixelWriter writer = out.getPixelWriter();
+        for (int readY = 1; readY < image.getHeight(); readY++) {
+            for (int readX = 0; readX < image.getWidth(); readX++) {
+                int rgb1 = reader.getArgb(readX > 0 ? readX - 1 : readX, readY);
+                int rgb2 = reader.getArgb(readX, readY - 1);
+                int rgb = reader.getArgb(readX, readY);
+                int argb = rgb & 0xff000000;
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int c = (rgb >> shift) & 0xff;
+                    int v = Math.abs(((rgb2 >> shift) & 0xff) - c) + Math.abs(((rgb1 >> shift) & 0xff) - c);
+                    argb += Math.min(v * intensity, 255) << shift;
+                }
+                writer.setArgb(readX, readY, argb);
+            }
+        }
+    }
+
+    private static int logPixel(int rgb) {
+        int r = (int) Math.log((rgb & 0xff0000) >> 16);
+        int g = (int) Math.log((rgb & 0xff00) >> 8);
+        int b = (int) Math.log(rgb & 0xff);
+        return (rgb & 0xff000000) + (r << 16) + (g << 8) + b;
+    }
+
+    private static int grayPixel(int rgb) {
+        int gray = (((rgb & 0xff0000) >> 16) * 3 + ((rgb & 0xff00) >> 8) * 4 + (rgb & 0xff) * 2) / 9;
+        return (rgb & 0xff000000) + (gray << 16) + (gray << 8) + gray;
+    }
+
+    private static int brightnessPixel(int rgb) {
+        int r = Math.min(255, (((rgb & 0xff0000) >> 16) * 120) / 100);
+        int g = Math.min(255, (((rgb & 0xff00) >> 8) * 120) / 100);
+        int b = Math.min(255, ((rgb & 0xff) * 120) / 100);
+        return (rgb & 0xff000000) + (r << 16) + (g << 8) + b;
+    }
+}
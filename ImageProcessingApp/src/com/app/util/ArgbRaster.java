@@ -0,0 +1,95 @@
+package com.app.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Flat 32-bit ARGB raster.
+ * Pixels are stored row by row in a single int array (index = x + y * width),
+ * so filters can run as plain array loops instead of per-pixel reader/writer calls.
+ * <p>
+ * It is the one format operations read and write: non-premultiplied ARGB, rows packed
+ * with a stride of width. JavaFX and AWT images only appear at the edges, where
+ * {@link ImageLoader} and {@link FxRasters} convert on load, {@link DisplayBuffer} on
+ * display and {@link ImageExport} on save, so a chain of operations converts nothing.
+ * <p>
+ * Code that writes the pixel array directly must call {@link #modified()} afterwards so
+ * that cached statistics such as the histogram are recomputed.
+ */
+public class ArgbRaster {
+    public final int width;
+    public final int height;
+    public final int[] pixels;
+
+    private int version;
+    private Histogram histogram;
+    private int histogramVersion = -1;
+    private long fingerprint;
+    private int fingerprintVersion = -1;
+
+    public ArgbRaster(int width, int height) {
+        this(width, height, new int[width * height]);
+    }
+
+    public ArgbRaster(int width, int height, int[] pixels) {
+        if (pixels.length < width * height) {
+            throw new IllegalArgumentException("Pixel array is too small for " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = pixels;
+    }
+
+    public int size() {
+        return width * height;
+    }
+
+    public int getArgb(int x, int y) {
+        return pixels[x + y * width];
+    }
+
+    public void setArgb(int x, int y, int argb) {
+        pixels[x + y * width] = argb;
+    }
+
+    public ArgbRaster copy() {
+        return new ArgbRaster(width, height, pixels.clone());
+    }
+
+    /**
+     * Marks the pixels as changed.
+     */
+    public synchronized void modified() {
+        version++;
+    }
+
+    public synchronized int version() {
+        return version;
+    }
+
+    /**
+     * 64-bit hash of the size and current pixels, computed at most once per version.
+     * Equal images always give equal fingerprints; different images almost never do.
+     */
+    public synchronized long fingerprint() {
+        if (fingerprintVersion != version) {
+            long h = 0xcbf29ce484222325L ^ ((long) width << 32 | height);
+            for (int i = 0, n = size(); i < n; i++) {
+                h = (h ^ pixels[i]) * 0x100000001b3L;
+            }
+            fingerprint = h ^ (h >>> 29);
+            fingerprintVersion = version;
+        }
+        return fingerprint;
+    }
+
+    /**
+     * Histogram of the current pixels, computed at most once per version.
+     */
+    public synchronized Histogram histogram(ForkJoinPool pool) {
+        if (histogramVersion != version) {
+            histogram = Histogram.of(this, pool);
+            histogramVersion = version;
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,100 @@
+package com.app.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Bulk conversions between AWT BufferedImages and {@link ArgbRaster}.
+ * Needs no JavaFX classes, so it can be used headless.
+ */
+public final class AwtRasters {
+
+    private AwtRasters() {
+    }
+
+    public static ArgbRaster read(BufferedImage image) {
+        ArgbRaster raster = new ArgbRaster(image.getWidth(), image.getHeight());
+        read(image, raster);
+        return raster;
+    }
+
+    /**
+     * Copies image into dst, which must have the same size.
+     */
+    public static void read(BufferedImage image, ArgbRaster dst) {
+        int w = image.getWidth();
+        int h = image.getHeight();
+        if (dst.width != w || dst.height != h) {
+            throw new IllegalArgumentException("Raster is " + dst.width + "x" + dst.height + ", image " + w + "x" + h);
+        }
+        int[] out = dst.pixels;
+        // Sub-images share a larger parent buffer, so only whole images are copied directly
+        switch (image.getRaster().getParent() == null ? image.getType() : BufferedImage.TYPE_CUSTOM) {
+            case BufferedImage.TYPE_INT_ARGB:
+                System.arraycopy(pixelsOf(image), 0, out, 0, w * h);
+                break;
+            case BufferedImage.TYPE_INT_RGB: {
+                int[] in = pixelsOf(image);
+                for (int i = 0, n = w * h; i < n; i++) {
+                    out[i] = 0xFF000000 | in[i];
+                }
+                break;
+            }
+            case BufferedImage.TYPE_3BYTE_BGR: {
+                // The layout ImageIO decodes JPEG and most RGB files to
+                byte[] in = bytesOf(image);
+                for (int i = 0, j = 0, n = w * h; i < n; i++, j += 3) {
+                    out[i] = 0xFF000000 | (in[j + 2] & 0xFF) << 16 | (in[j + 1] & 0xFF) << 8 | in[j] & 0xFF;
+                }
+                break;
+            }
+            case BufferedImage.TYPE_4BYTE_ABGR: {
+                byte[] in = bytesOf(image);
+                for (int i = 0, j = 0, n = w * h; i < n; i++, j += 4) {
+                    out[i] = (in[j] & 0xFF) << 24 | (in[j + 3] & 0xFF) << 16 | (in[j + 2] & 0xFF) << 8 | in[j + 1] & 0xFF;
+                }
+                break;
+            }
+            default:
+                image.getRGB(0, 0, w, h, out, 0, w);
+        }
+        dst.modified();
+    }
+
+    /**
+     * Copies the raster into a new TYPE_INT_ARGB image, or TYPE_INT_RGB when alpha is false.
+     * Both layouts match the raster ints, so this is one array copy; TYPE_INT_RGB simply
+     * ignores the top byte.
+     */
+    public static BufferedImage toBufferedImage(ArgbRaster raster, boolean alpha) {
+        BufferedImage image = new BufferedImage(raster.width, raster.height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        System.arraycopy(raster.pixels, 0, pixelsOf(image), 0, raster.size());
+        return image;
+    }
+
+    /**
+     * Copies the packed bits into a new 1-bit TYPE_BYTE_BINARY image, eight pixels per byte.
+     */
+    public static BufferedImage toBufferedImage(BinaryImage mask) {
+        BufferedImage image = new BufferedImage(mask.width, mask.height, BufferedImage.TYPE_BYTE_BINARY);
+        byte[] out = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = (mask.width + 7) >>> 3;
+        for (int y = 0; y < mask.height; y++) {
+            int base = y * mask.wordsPerRow;
+            for (int b = 0; b < stride; b++) {
+                out[y * stride + b] = (byte) (mask.words[base + (b >>> 3)] >>> (56 - ((b & 7) << 3)));
+            }
+        }
+        return image;
+    }
+
+    private static int[] pixelsOf(BufferedImage image) {
+        return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    }
+
+    private static byte[] bytesOf(BufferedImage image) {
+        return ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+    }
+}
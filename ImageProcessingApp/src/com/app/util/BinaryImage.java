@@ -0,0 +1,142 @@
+package com.app.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Black and white image packed 64 pixels per long.
+ * <p>
+ * Every row starts on a new word, and pixel x of a row is bit 63 - (x % 64) of word x / 64,
+ * so the words of a row read as big-endian bytes match the layout of a 1-bit AWT image.
+ * A set bit is white. Row bands never share a word, so bands can be written in parallel.
+ */
+public final class BinaryImage {
+    public final int width;
+    public final int height;
+    public final int wordsPerRow;
+    final long[] words;
+
+    public BinaryImage(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.wordsPerRow = (width + 63) >>> 6;
+        this.words = new long[wordsPerRow * height];
+    }
+
+    public boolean get(int x, int y) {
+        return (words[y * wordsPerRow + (x >>> 6)] & bit(x)) != 0;
+    }
+
+    public void set(int x, int y, boolean white) {
+        int i = y * wordsPerRow + (x >>> 6);
+        if (white) {
+            words[i] |= bit(x);
+        } else {
+            words[i] &= ~bit(x);
+        }
+    }
+
+    /**
+     * Number of white pixels.
+     */
+    public long cardinality() {
+        long n = 0;
+        for (long word : words) {
+            n += Long.bitCount(word);
+        }
+        return n;
+    }
+
+    public long sizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+
+    /**
+     * White where the average brightness is at most t, as in {@link Filters#threshold}.
+     */
+    public static BinaryImage threshold(ArgbRaster src, int t, ForkJoinPool pool) {
+        BinaryImage dst = new BinaryImage(src.width, src.height);
+        int[] in = src.pixels;
+        RowBands.run(pool, src.height, (y0, y1) -> dst.pack(y0, y1, i -> Filters.avg(in[i]) <= t, src.width));
+        return dst;
+    }
+
+    /**
+     * White where bit d of the source pixel is set, as in {@link Filters#bitSlice}.
+     */
+    public static BinaryImage bitSlice(ArgbRaster src, int d, ForkJoinPool pool) {
+        BinaryImage dst = new BinaryImage(src.width, src.height);
+        int[] in = src.pixels;
+        RowBands.run(pool, src.height, (y0, y1) -> dst.pack(y0, y1, i -> ((in[i] >>> d) & 1) != 0, src.width));
+        return dst;
+    }
+
+    /**
+     * Expands rows fromRow..toRow-1 into dst, writing white and black as given.
+     * Words that are all black or all white are filled without looking at single bits.
+     */
+    public void toArgb(ArgbRaster dst, int white, int black, int fromRow, int toRow) {
+        int[] out = dst.pixels;
+        for (int y = fromRow; y < toRow; y++) {
+            expandRow(y, out, y * width, white, black);
+        }
+    }
+
+    public ArgbRaster toArgb(ForkJoinPool pool) {
+        ArgbRaster dst = new ArgbRaster(width, height);
+        RowBands.run(pool, height, (y0, y1) -> toArgb(dst, 0xffffffff, 0xff000000, y0, y1));
+        return dst;
+    }
+
+    /**
+     * Writes row y into out starting at offset.
+     */
+    void expandRow(int y, int[] out, int offset, int white, int black) {
+        int base = y * wordsPerRow;
+        for (int w = 0; w < wordsPerRow; w++) {
+            long word = words[base + w];
+            int from = offset + (w << 6);
+            int to = offset + Math.min(width, (w + 1) << 6);
+            if (word == 0) {
+                Arrays.fill(out, from, to, black);
+            } else if (word == -1L) {
+                Arrays.fill(out, from, to, white);
+            } else {
+                for (int i = from; i < to; i++, word <<= 1) {
+                    out[i] = word < 0 ? white : black;
+                }
+            }
+        }
+    }
+
+    interface PixelTest {
+        boolean white(int index);
+    }
+
+    /**
+     * Packs row y, passing test the column of each pixel.
+     */
+    void packRow(int y, PixelTest test) {
+        pack(y, y + 1, test, 0);
+    }
+
+    private void pack(int fromRow, int toRow, PixelTest test, int stride) {
+        for (int y = fromRow; y < toRow; y++) {
+            int base = y * wordsPerRow;
+            int row = y * stride;
+            for (int w = 0; w < wordsPerRow; w++) {
+                int x0 = w << 6;
+                int n = Math.min(64, width - x0);
+                long word = 0;
+                for (int k = 0; k < n; k++) {
+                    word = (word << 1) | (test.white(row + x0 + k) ? 1 : 0);
+                }
+                words[base + w] = word << (64 - n);
+            }
+        }
+    }
+
+    private static long bit(int x) {
+        return Long.MIN_VALUE >>> (x & 63);
+    }
+}
@@ -0,0 +1,182 @@
+package com.app.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Contrast limited adaptive histogram equalization (CLAHE) of the gray levels.
+ * <p>
+ * The image is cut into square tiles, {@link #tiles} of them across its longer side, so
+ * a preview gives the same picture as the full image. Each tile gets the luma histogram
+ * of its pixels, clipped at {@link #clipLimit} times the average bin count with the
+ * clipped counts spread over all bins, and the equalizing table of that histogram. Every
+ * pixel then goes through the tables of the four tiles whose centers surround it, blended
+ * bilinearly, so tile borders do not show.
+ * <p>
+ * Histograms are collected per row band and merged, and the output is written per row
+ * band in a single pass, both on the pool. The result is gray with the source alpha.
+ */
+public final class Clahe {
+
+    /**
+     * Most tiles across the longer side; the tables take tiles * tiles KB.
+     */
+    public static final int MAX_TILES = 64;
+
+    public final int tiles;
+    public final double clipLimit;
+
+    /**
+     * @param tiles     tiles across the longer side, 1 to {@link #MAX_TILES}
+     * @param clipLimit highest bin of a tile histogram as a multiple of the average bin,
+     *                  at least 1; 1 leaves the gray levels as they are, large values
+     *                  give plain per-tile equalization
+     */
+    public Clahe(int tiles, double clipLimit) {
+        if (tiles < 1 || tiles > MAX_TILES) {
+            throw new IllegalArgumentException("Tiles must be 1 to " + MAX_TILES + ": " + tiles);
+        }
+        if (!(clipLimit >= 1)) {
+            throw new IllegalArgumentException("Clip limit must be at least 1: " + clipLimit);
+        }
+        this.tiles = tiles;
+        this.clipLimit = clipLimit;
+    }
+
+    public void apply(ArgbRaster src, ArgbRaster dst, ForkJoinPool pool, Progress progress) {
+        int w = src.width;
+        int h = src.height;
+        if (w == 0 || h == 0) {
+            return;
+        }
+        int tile = (Math.max(w, h) + tiles - 1) / tiles;
+        int tilesX = (w + tile - 1) / tile;
+        int tilesY = (h + tile - 1) / tile;
+        int[] luts = histograms(src, tile, tilesX, tilesY, pool);
+        for (int t = 0; t < tilesX * tilesY; t++) {
+            equalize(luts, t << 8);
+        }
+        progress.checkCancelled();
+
+        // Tables to blend and the weight of the second one, per column and per row
+        int[] left = new int[w];
+        int[] right = new int[w];
+        int[] wx = new int[w];
+        for (int x = 0; x < w; x++) {
+            int t = neighbours(x, tile, tilesX, wx);
+            left[x] = (t >> 16) << 8;
+            right[x] = (t & 0xffff) << 8;
+        }
+        int[] wy = new int[h];
+        int[] rowTiles = new int[h];
+        for (int y = 0; y < h; y++) {
+            rowTiles[y] = neighbours(y, tile, tilesY, wy);
+        }
+
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        int rowStride = tilesX << 8;
+        RowBands.run(pool, h, progress, (y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int top = (rowTiles[y] >> 16) * rowStride;
+                int bottom = (rowTiles[y] & 0xffff) * rowStride;
+                int fy = wy[y];
+                int gy = 256 - fy;
+                for (int x = 0, i = y * w; x < w; x++, i++) {
+                    int rgb = in[i];
+                    int g = Filters.luma(rgb);
+                    int fx = wx[x];
+                    int gx = 256 - fx;
+                    int l = left[x] + g;
+                    int r = right[x] + g;
+                    int upper = luts[top + l] * gx + luts[top + r] * fx;
+                    int lower = luts[bottom + l] * gx + luts[bottom + r] * fx;
+                    int v = (upper * gy + lower * fy + (1 << 15)) >>> 16;
+                    out[i] = (rgb & 0xff000000) | v << 16 | v << 8 | v;
+                }
+            }
+        });
+    }
+
+    /**
+     * Luma histograms of all tiles, 256 bins each, tile by tile in row order.
+     */
+    private static int[] histograms(ArgbRaster src, int tile, int tilesX, int tilesY, ForkJoinPool pool) {
+        int w = src.width;
+        int[] in = src.pixels;
+        int[] columnBins = new int[w];
+        for (int x = 0; x < w; x++) {
+            columnBins[x] = (x / tile) << 8;
+        }
+        int[] total = new int[tilesX * tilesY << 8];
+        RowBands.run(pool, src.height, (y0, y1) -> {
+            int firstTile = y0 / tile;
+            int[] part = new int[((y1 - 1) / tile - firstTile + 1) * tilesX << 8];
+            for (int y = y0; y < y1; y++) {
+                int base = (y / tile - firstTile) * tilesX << 8;
+                for (int x = 0, i = y * w; x < w; x++, i++) {
+                    part[base + columnBins[x] + Filters.luma(in[i])]++;
+                }
+            }
+            int offset = firstTile * tilesX << 8;
+            synchronized (total) {
+                for (int k = 0; k < part.length; k++) {
+                    total[offset + k] += part[k];
+                }
+            }
+        });
+        return total;
+    }
+
+    /**
+     * Clips the histogram at bins[from, from + 256) and replaces it with its table.
+     */
+    private void equalize(int[] bins, int from) {
+        long count = 0;
+        for (int v = from; v < from + 256; v++) {
+            count += bins[v];
+        }
+        if (count == 0) {
+            return;
+        }
+        int limit = (int) Math.max(1, clipLimit * count / 256);
+        long excess = 0;
+        for (int v = from; v < from + 256; v++) {
+            if (bins[v] > limit) {
+                excess += bins[v] - limit;
+                bins[v] = limit;
+            }
+        }
+        int spread = (int) (excess >> 8);
+        int rest = (int) (excess & 0xff);
+        for (int v = from; v < from + 256; v++) {
+            bins[v] += spread;
+        }
+        for (int k = 0; k < rest; k++) {
+            bins[from + (k << 8) / rest]++;
+        }
+        long cumulative = 0;
+        for (int v = from; v < from + 256; v++) {
+            cumulative += bins[v];
+            bins[v] = (int) ((cumulative * 255 + count / 2) / count);
+        }
+    }
+
+    /**
+     * Tiles whose centers lie on either side of pixel p, packed as first << 16 | second,
+     * and the weight of the second in 1/256 stored at weights[p].
+     */
+    private static int neighbours(int p, int tile, int count, int[] weights) {
+        double f = (p + 0.5) / tile - 0.5;
+        int first = (int) Math.floor(f);
+        if (first < 0) {
+            weights[p] = 0;
+            return 0;
+        }
+        if (first >= count - 1) {
+            weights[p] = 0;
+            return (count - 1) << 16 | (count - 1);
+        }
+        weights[p] = (int) Math.round((f - first) * 256);
+        return first << 16 | (first + 1);
+    }
+}
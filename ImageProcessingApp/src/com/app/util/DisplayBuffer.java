@@ -0,0 +1,128 @@
+package com.app.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import javafx.geometry.Rectangle2D;
+import javafx.scene.image.PixelBuffer;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+/**
+ * WritableImage whose pixels live in a direct IntBuffer wrapped by a JavaFX PixelBuffer,
+ * so that JavaFX renders straight from the memory results are copied into, with no
+ * PixelWriter copy and format conversion in between.
+ * <p>
+ * {@link #show} copies a result in row by row and tells JavaFX only about the rectangle
+ * whose pixels changed, so re-showing a similar result, e.g. after undo, uploads little.
+ * PixelBuffer takes premultiplied ARGB ints; opaque pixels, the common case, are the same
+ * in both forms, and translucent ones are premultiplied on the way as PixelWriter would.
+ * All methods must be called on the JavaFX thread.
+ */
+public final class DisplayBuffer {
+
+    private interface Rows {
+        void row(int y, int[] out);
+    }
+
+    public final int width;
+    public final int height;
+    public final WritableImage image;
+    private final IntBuffer pixels;
+    private final PixelBuffer<IntBuffer> buffer;
+    private final int[] oldRow;
+    private final int[] newRow;
+
+    /**
+     * @throws IllegalArgumentException when width * height * 4 bytes do not fit in one
+     *                                  direct buffer, i.e. exceed 2 GB
+     */
+    public DisplayBuffer(int width, int height) {
+        long bytes = (long) width * height * 4;
+        if (width < 1 || height < 1 || bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Cannot display " + width + "x" + height + " pixels");
+        }
+        this.width = width;
+        this.height = height;
+        this.pixels = ByteBuffer.allocateDirect((int) bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+        this.buffer = new PixelBuffer<>(width, height, pixels, PixelFormat.getIntArgbPreInstance());
+        this.image = new WritableImage(buffer);
+        this.oldRow = new int[width];
+        this.newRow = new int[width];
+    }
+
+    /**
+     * Shows raster, which must have the size of the buffer.
+     */
+    public void show(ArgbRaster raster) {
+        if (raster.width != width || raster.height != height) {
+            throw new IllegalArgumentException("Raster is " + raster.width + "x" + raster.height
+                    + ", display " + width + "x" + height);
+        }
+        int[] src = raster.pixels;
+        update((y, out) -> {
+            for (int x = 0, i = y * width; x < width; x++, i++) {
+                out[x] = premultiply(src[i]);
+            }
+        });
+    }
+
+    /**
+     * Shows mask as opaque black and white, expanding it one row at a time.
+     */
+    public void show(BinaryImage mask) {
+        if (mask.width != width || mask.height != height) {
+            throw new IllegalArgumentException("Mask is " + mask.width + "x" + mask.height
+                    + ", display " + width + "x" + height);
+        }
+        update((y, out) -> mask.expandRow(y, out, 0, 0xffffffff, 0xff000000));
+    }
+
+    private void update(Rows rows) {
+        buffer.updateBuffer(b -> {
+            int minX = width;
+            int maxX = -1;
+            int minY = height;
+            int maxY = -1;
+            for (int y = 0; y < height; y++) {
+                int offset = y * width;
+                rows.row(y, newRow);
+                pixels.get(offset, oldRow);
+                int first = 0;
+                while (first < width && oldRow[first] == newRow[first]) {
+                    first++;
+                }
+                if (first == width) {
+                    continue;
+                }
+                int last = width - 1;
+                while (oldRow[last] == newRow[last]) {
+                    last--;
+                }
+                pixels.put(offset + first, newRow, first, last - first + 1);
+                minX = Math.min(minX, first);
+                maxX = Math.max(maxX, last);
+                minY = Math.min(minY, y);
+                maxY = y;
+            }
+            return maxY < 0 ? Rectangle2D.EMPTY : new Rectangle2D(minX, minY, maxX - minX + 1, maxY - minY + 1);
+        });
+    }
+
+    /**
+     * Non-premultiplied to premultiplied ARGB, rounded the way JavaFX converts pixels.
+     */
+    static int premultiply(int argb) {
+        int a = argb >>> 24;
+        if (a == 0xff) {
+            return argb;
+        } else if (a == 0) {
+            return 0;
+        }
+        int r = (((argb >> 16) & 0xff) * a + 127) / 255;
+        int g = (((argb >> 8) & 0xff) * a + 127) / 255;
+        int b = ((argb & 0xff) * a + 127) / 255;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
@@ -0,0 +1,406 @@
+package com.app.util;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Filter kernels working on {@link ArgbRaster} arrays.
+ * Every kernel reads from src and writes to dst; src is never modified.
+ */
+public final class Filters {
+
+    /**
+     * ARGB that AWT gives for each level of an 8-bit gray image. AWT treats those levels as
+     * linear gray, so they come out lighter than the same r = g = b value.
+     */
+    private static final int[] GRAY_LEVEL_ARGB = grayLevelArgb();
+
+    private Filters() {
+    }
+
+    public static void copy(ArgbRaster src, ArgbRaster dst) {
+        System.arraycopy(src.pixels, 0, dst.pixels, 0, src.size());
+    }
+
+    /**
+     * Lowest non-empty bin of a histogram, 255 if it is empty.
+     */
+    public static int minLevel(long[] hist) {
+        for (int i = 0; i < 256; i++) {
+            if (hist[i] != 0) {
+                return i;
+            }
+        }
+        return 255;
+    }
+
+    /**
+     * Highest non-empty bin of a histogram, 0 if it is empty.
+     */
+    public static int maxLevel(long[] hist) {
+        for (int i = 255; i >= 0; i--) {
+            if (hist[i] != 0) {
+                return i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Pixels brighter than t become black, the rest white. Alpha is kept.
+     */
+    public static void threshold(ArgbRaster src, ArgbRaster dst, int t) {
+        threshold(src, dst, t, 0, src.height);
+    }
+
+    public static void threshold(ArgbRaster src, ArgbRaster dst, int t, int fromRow, int toRow) {
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        Simd.Kernels simd = Simd.kernels();
+        if (simd != null) {
+            simd.threshold(in, out, fromRow * src.width, toRow * src.width, t);
+            return;
+        }
+        for (int i = fromRow * src.width, n = toRow * src.width; i < n; i++) {
+            int rgb = in[i];
+            out[i] = avg(rgb) > t ? rgb & 0xff000000 : (rgb & 0xff000000) + 0xffffff;
+        }
+    }
+
+    /**
+     * Gradient weighted mean of the average brightness over the inner pixels.
+     * Each band keeps three rows of brightness in a ring buffer and sums into longs,
+     * and the band sums are merged at the end. Returns 0 for an image without gradients.
+     */
+    public static int findBrightnessGradientThreshold(ArgbRaster src, ForkJoinPool pool) {
+        long[] total = new long[2];
+        RowBands.run(pool, src.height, (y0, y1) -> {
+            long[] part = gradientSums(src, Math.max(y0, 1), Math.min(y1, src.height - 1));
+            synchronized (total) {
+                total[0] += part[0];
+                total[1] += part[1];
+            }
+        });
+        return total[1] == 0 ? 0 : (int) (total[0] / total[1]);
+    }
+
+    /**
+     * Sums of brightness * gradient and of gradient over rows fromRow..toRow-1, which must be inner rows.
+     */
+    static long[] gradientSums(ArgbRaster src, int fromRow, int toRow) {
+        long fgAccum = 0;
+        long gAccum = 0;
+        int w = src.width;
+        if (fromRow < toRow && w > 2) {
+            int[] in = src.pixels;
+            int[][] ring = new int[3][w];
+            avgRow(in, fromRow - 1, w, ring[(fromRow - 1) % 3]);
+            avgRow(in, fromRow, w, ring[fromRow % 3]);
+            for (int y = fromRow; y < toRow; y++) {
+                int[] up = ring[(y - 1) % 3];
+                int[] row = ring[y % 3];
+                int[] down = ring[(y + 1) % 3];
+                avgRow(in, y + 1, w, down);
+                for (int x = 1; x < w - 1; x++) {
+                    int gm = row[x + 1] - row[x - 1];
+                    int gn = down[x] - up[x];
+                    int gFunc = Math.max(Math.abs(gm), Math.abs(gn));
+                    fgAccum += row[x] * gFunc;
+                    gAccum += gFunc;
+                }
+            }
+        }
+        return new long[]{fgAccum, gAccum};
+    }
+
+    private static void avgRow(int[] in, int y, int w, int[] out) {
+        for (int x = 0, i = y * w; x < w; x++, i++) {
+            out[x] = avg(in[i]);
+        }
+    }
+
+    /**
+     * Same value as the low byte of the maximum of grayscaleArray(), without building the array.
+     */
+    public static int maxGray(ArgbRaster src) {
+        return maxGrayArgb(src) & 0xff;
+    }
+
+    /**
+     * Largest gray pixel, alpha included and compared as a signed int, so that the maxima of
+     * several bands merge with Math.max.
+     */
+    static int maxGrayArgb(ArgbRaster src) {
+        int[] in = src.pixels;
+        int max = Integer.MIN_VALUE;
+        for (int i = 0, n = src.size(); i < n; i++) {
+            int rgb = in[i];
+            int avg = avg(rgb);
+            max = Math.max(max, (rgb & 0xff000000) + (avg << 16) + (avg << 8) + avg);
+        }
+        return max;
+    }
+
+    public static int[] grayscaleArray(ArgbRaster src) {
+        int[] in = src.pixels;
+        int[] arr = new int[src.size()];
+        for (int i = 0; i < arr.length; i++) {
+            int rgb = in[i];
+            int avg = avg(rgb);
+            arr[i] = (rgb & 0xff000000) + (avg << 16) + (avg << 8) + avg;
+        }
+        return arr;
+    }
+
+    /**
+     * White where bit d of the source pixel is set, black elsewhere.
+     */
+    public static void bitSlice(ArgbRaster src, ArgbRaster dst, int d) {
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        for (int i = 0, n = src.size(); i < n; i++) {
+            out[i] = ((in[i] >>> d) & 1) != 0 ? 0xffffffff : 0xff000000;
+        }
+    }
+
+    /**
+     * Global histogram equalization of the red channel into an opaque gray image, with the
+     * gray levels shown the way the app's AWT gray image shows them.
+     */
+    public static void equalize(ArgbRaster src, ArgbRaster dst, ForkJoinPool pool) {
+        equalize(src, dst, equalizeLut(src.histogram(pool)));
+    }
+
+    /**
+     * Gray pixel for each red level of an image with histogram h, spreading the levels evenly.
+     */
+    public static int[] equalizeLut(Histogram h) {
+        long totpix = h.count();
+        long[] histogram = h.bins(Histogram.RED);
+        int[] lut = new int[256];
+        long cumulative = 0;
+        for (int i = 0; i < 256; i++) {
+            cumulative += histogram[i];
+            int v = (int) (float) ((cumulative * 255.0) / (float) totpix);
+            lut[i] = GRAY_LEVEL_ARGB[v];
+        }
+        return lut;
+    }
+
+    public static void equalize(ArgbRaster src, ArgbRaster dst, int[] lut) {
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        for (int i = 0, n = src.size(); i < n; i++) {
+            out[i] = lut[(in[i] >> 16) & 0xff];
+        }
+    }
+
+    public static void noise(ArgbRaster src, ArgbRaster dst, float percent, Random rnd) {
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        for (int i = 0, n = src.size(); i < n; i++) {
+            int rgb = in[i];
+            int randomBrightness = (int) (rnd.nextFloat() * percent) + 100;
+            int r = Math.min((((rgb & 0xff0000) >> 16) * randomBrightness) / 100, 255);
+            int g = Math.min((((rgb & 0xff00) >> 8) * randomBrightness) / 100, 255);
+            int b = Math.min(((rgb & 0xff) * randomBrightness) / 100, 255);
+            out[i] = (rgb & 0xff000000) + (r << 16) + (g << 8) + b;
+        }
+    }
+
+    public static void pseudoColors(ArgbRaster src, ArgbRaster dst, int shift) {
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        for (int i = 0, n = src.size(); i < n; i++) {
+            int rgb = in[i];
+            out[i] = (rgb & 0xff000000) + ((rgb << shift) & 0xffffff);
+        }
+    }
+
+    public static void transparency(ArgbRaster src, ArgbRaster dst, int percent) {
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        Simd.Kernels simd = Simd.kernels();
+        if (simd != null && percent >= 0 && percent <= Simd.MAX_PERCENT) {
+            simd.transparency(in, out, 0, src.size(), percent);
+            return;
+        }
+        for (int i = 0, n = src.size(); i < n; i++) {
+            int rgb = in[i];
+            int a = Math.min(255, (((rgb >> 24) & 0xff) * percent) / 100);
+            out[i] = (rgb & 0xffffff) + (a << 24);
+        }
+    }
+
+    /**
+     * Clears the alpha of every pixel within the given color range.
+     * Pixels outside the range are left untouched in dst.
+     */
+    public static void makeTransparent(ArgbRaster src, ArgbRaster dst,
+                                       int rMin, int rMax, int gMin, int gMax, int bMin, int bMax) {
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        for (int i = 0, n = src.size(); i < n; i++) {
+            int rgb = in[i];
+            int r = (rgb & 0xff0000) >> 16;
+            int g = (rgb & 0xff00) >> 8;
+            int b = (rgb & 0xff);
+            if ((r >= rMin) && (r <= rMax) && (g >= gMin) && (g <= gMax) && (b >= bMin) && (b <= bMax))
+                out[i] = rgb & 0xffffff;
+        }
+    }
+
+    public static void lineArt(ArgbRaster src, ArgbRaster dst, int intensity, boolean gray) {
+        lineArt(src, dst, intensity, gray, 0, src.height);
+    }
+
+    /**
+     * Rows [fromRow, toRow) of lineArt. Reads the row above fromRow from src.
+     */
+    public static void lineArt(ArgbRaster src, ArgbRaster dst, int intensity, boolean gray, int fromRow, int toRow) {
+        int width = src.width;
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        if (fromRow == 0) {
+            //The first line is undefined, give it the color of bgColor
+            Arrays.fill(out, 0, width, 0);
+            fromRow = 1;
+        }
+
+        for (int y = fromRow; y < toRow; y++) {
+            int row = y * width;
+            for (int x = 0; x < width; x++) {
+                int i = row + x;
+                int rgb1 = x > 0 ? in[i - 1] : in[i];   //pixel to the left
+                int rgb2 = in[i - width];               //pixel above
+                int rgb = in[i];                        //current pixel
+                int r, g, b;
+                if (gray) {
+                    int g1 = luma(rgb1);
+                    int g2 = luma(rgb2);
+                    int g0 = luma(rgb);
+                    r = g = b = Math.min((Math.abs(g2 - g0) + Math.abs(g1 - g0)) * intensity, 255);
+                } else {
+                    r = Math.min((Math.abs(((rgb2 >> 16) & 0xff) - ((rgb >> 16) & 0xff))
+                            + Math.abs(((rgb1 >> 16) & 0xff) - ((rgb >> 16) & 0xff))) * intensity, 255);
+                    g = Math.min((Math.abs(((rgb2 >> 8) & 0xff) - ((rgb >> 8) & 0xff))
+                            + Math.abs(((rgb1 >> 8) & 0xff) - ((rgb >> 8) & 0xff))) * intensity, 255);
+                    b = Math.min((Math.abs((rgb2 & 0xff) - (rgb & 0xff))
+                            + Math.abs((rgb1 & 0xff) - (rgb & 0xff))) * intensity, 255);
+                }
+                out[i] = (rgb & 0xff000000) + (r << 16) + (g << 8) + b;
+            }
+        }
+    }
+
+    public static void emboss(ArgbRaster src, ArgbRaster dst,
+                              double angle, double power, int red, int green, int blue, boolean gray) {
+        emboss(src, dst, angle, power, red, green, blue, gray, 0, src.height);
+    }
+
+    /**
+     * Rows [fromRow, toRow) of emboss, borders included. The light offset may reach
+     * pixels outside the band; they are read from src.
+     */
+    public static void emboss(ArgbRaster src, ArgbRaster dst,
+                              double angle, double power, int red, int green, int blue, boolean gray,
+                              int fromRow, int toRow) {
+        int width = src.width;
+        int height = src.height;
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        double angleRadians = angle / (180.0 / Math.PI);
+        int light = (int) (Math.round(Math.sin(angleRadians)) * width) + (int) (Math.round(Math.cos(angleRadians))) - 1;
+
+        for (int i = Math.max(fromRow, 1) * width, n = toRow * width; i < n; i++) {
+            int rgb1 = in[i];           //current pixel
+            int rgb2 = in[i - light];   //pixel in the direction given by angle
+            int r1 = (rgb1 & 0xff0000) >> 16;
+            int g1 = (rgb1 & 0xff00) >> 8;
+            int b1 = (rgb1 & 0xff);
+            int r2 = (rgb2 & 0xff0000) >> 16;
+            int g2 = (rgb2 & 0xff00) >> 8;
+            int b2 = (rgb2 & 0xff);
+            if (gray) {
+                r1 = g1 = b1 = luma(rgb1);
+                r2 = g2 = b2 = luma(rgb2);
+            }
+
+            int r = Math.min(Math.max(red + (int) ((r2 - r1) * power), 0), 255);
+            int g = Math.min(Math.max(green + (int) ((g2 - g1) * power), 0), 255);
+            int b = Math.min(Math.max(blue + (int) ((b2 - b1) * power), 0), 255);
+
+            out[i] = (rgb1 & 0xff000000) + (r << 16) + (g << 8) + b;
+        }
+
+        //Borders are undefined, fill with specified color
+        int color = (red << 16) + (green << 8) + blue;
+        int last = (height - 1) * width;
+        for (int x = 0; x < width; x++) {
+            if (fromRow == 0)
+                out[x] = (in[x] & 0xff000000) + color;
+            if (toRow == height)
+                out[last + x] = (in[last + x] & 0xff000000) + color;
+        }
+        for (int row = fromRow * width; row < toRow * width; row += width) {
+            out[row] = (in[row] & 0xff000000) + color;
+            out[row + width - 1] = (in[row + width - 1] & 0xff000000) + color;
+        }
+    }
+
+    /**
+     * Averages factor x factor blocks of src into dst, which is src divided by factor and
+     * rounded up; blocks on the right and bottom edges may be smaller.
+     */
+    public static void downscale(ArgbRaster src, ArgbRaster dst, int factor, int fromRow, int toRow) {
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        for (int y = fromRow; y < toRow; y++) {
+            int y0 = y * factor;
+            int y1 = Math.min(src.height, y0 + factor);
+            for (int x = 0; x < dst.width; x++) {
+                int x0 = x * factor;
+                int x1 = Math.min(src.width, x0 + factor);
+                int a = 0;
+                int r = 0;
+                int g = 0;
+                int b = 0;
+                for (int sy = y0; sy < y1; sy++) {
+                    for (int i = x0 + sy * src.width, end = x1 + sy * src.width; i < end; i++) {
+                        int argb = in[i];
+                        a += argb >>> 24;
+                        r += (argb >> 16) & 0xff;
+                        g += (argb >> 8) & 0xff;
+                        b += argb & 0xff;
+                    }
+                }
+                int n = (x1 - x0) * (y1 - y0);
+                out[x + y * dst.width] = (a / n) << 24 | (r / n) << 16 | (g / n) << 8 | b / n;
+            }
+        }
+    }
+
+    /**
+     * Gray value used by gray(), graylineArt() and grayemboss().
+     */
+    static int luma(int rgb) {
+        return (((rgb & 0xff0000) >> 16) * 3 + ((rgb & 0xff00) >> 8) * 4 + (rgb & 0xff) * 2) / 9;
+    }
+
+    /**
+     * Plain channel average used by the threshold methods.
+     */
+    static int avg(int rgb) {
+        return (((rgb & 0xff0000) >> 16) + ((rgb & 0xff00) >> 8) + (rgb & 0xff)) / 3;
+    }
+
+    private static int[] grayLevelArgb() {
+        BufferedImage gray = new BufferedImage(256, 1, BufferedImage.TYPE_BYTE_GRAY);
+        for (int v = 0; v < 256; v++) {
+            gray.getRaster().setSample(v, 0, 0, v);
+        }
+        return gray.getRGB(0, 0, 256, 1, null, 0, 256);
+    }
+}
@@ -0,0 +1,61 @@
+package com.app.util;
+
+import javafx.scene.image.Image;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import javafx.scene.paint.Color;
+
+/**
+ * Bulk conversions between JavaFX images and {@link ArgbRaster}.
+ * Each conversion is a single getPixels/setPixels call.
+ */
+public final class FxRasters {
+
+    private FxRasters() {
+    }
+
+    public static ArgbRaster read(Image image) {
+        int w = (int) image.getWidth();
+        int h = (int) image.getHeight();
+        ArgbRaster raster = new ArgbRaster(w, h);
+        image.getPixelReader().getPixels(0, 0, w, h, PixelFormat.getIntArgbInstance(), raster.pixels, 0, w);
+        return raster;
+    }
+
+    public static void write(ArgbRaster raster, PixelWriter writer) {
+        writer.setPixels(0, 0, raster.width, raster.height, PixelFormat.getIntArgbInstance(),
+                raster.pixels, 0, raster.width);
+    }
+
+    public static WritableImage toImage(ArgbRaster raster) {
+        WritableImage image = new WritableImage(raster.width, raster.height);
+        write(raster, image.getPixelWriter());
+        return image;
+    }
+
+    /**
+     * Expands a binary image one row at a time, so no full ARGB copy is made.
+     */
+    public static WritableImage toImage(BinaryImage mask) {
+        WritableImage image = new WritableImage(mask.width, mask.height);
+        PixelWriter writer = image.getPixelWriter();
+        int[] row = new int[mask.width];
+        for (int y = 0; y < mask.height; y++) {
+            mask.expandRow(y, row, 0, 0xffffffff, 0xff000000);
+            writer.setPixels(0, y, mask.width, 1, PixelFormat.getIntArgbInstance(), row, 0, mask.width);
+        }
+        return image;
+    }
+
+    /**
+     * Packs a color the same way PixelWriter.setColor does.
+     */
+    public static int toArgb(Color color) {
+        int a = (int) Math.round(color.getOpacity() * 255.0);
+        int r = (int) Math.round(color.getRed() * 255.0);
+        int g = (int) Math.round(color.getGreen() * 255.0);
+        int b = (int) Math.round(color.getBlue() * 255.0);
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+}
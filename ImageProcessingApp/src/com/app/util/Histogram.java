@@ -0,0 +1,161 @@
+package com.app.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Red, green, blue, alpha, luma and channel-average histograms of an image, built in one pass,
+ * with min/max/mean/variance/percentile statistics per channel.
+ * <p>
+ * Luma is the weighted gray used by gray(); average is (r + g + b) / 3 as used by the
+ * threshold methods. Use {@link ArgbRaster#histogram(ForkJoinPool)} to get a cached instance.
+ */
+public final class Histogram {
+    public static final int RED = 0;
+    public static final int GREEN = 1;
+    public static final int BLUE = 2;
+    public static final int ALPHA = 3;
+    public static final int LUMA = 4;
+    public static final int AVERAGE = 5;
+
+    // Long bins: a MappedRaster merges band histograms of more than 2^31 pixels
+    private final long[][] bins = new long[6][256];
+    private long count;
+
+    Histogram() {
+    }
+
+    /**
+     * Scans the raster once. With a pool, each row band fills its own bins and the
+     * partial histograms are merged at the end.
+     */
+    public static Histogram of(ArgbRaster src, ForkJoinPool pool) {
+        Histogram total = new Histogram();
+        RowBands.run(pool, src.height, (y0, y1) -> {
+            Histogram part = new Histogram();
+            part.scan(src.pixels, y0 * src.width, y1 * src.width);
+            synchronized (total) {
+                total.merge(part);
+            }
+        });
+        return total;
+    }
+
+    /**
+     * Histogram of a mask shown as opaque black and white, from its white pixel count.
+     */
+    public static Histogram of(BinaryImage mask) {
+        Histogram h = new Histogram();
+        long n = (long) mask.width * mask.height;
+        long white = mask.cardinality();
+        for (int c = 0; c < h.bins.length; c++) {
+            if (c == ALPHA) {
+                h.bins[c][255] = n;
+            } else {
+                h.bins[c][0] = n - white;
+                h.bins[c][255] = white;
+            }
+        }
+        h.count = n;
+        return h;
+    }
+
+    /**
+     * Counts pixels [from, to) of one raster, fewer than 2^31, in int bins first.
+     */
+    private void scan(int[] pixels, int from, int to) {
+        int[][] counts = new int[6][256];
+        int[] r = counts[RED];
+        int[] g = counts[GREEN];
+        int[] b = counts[BLUE];
+        int[] a = counts[ALPHA];
+        int[] luma = counts[LUMA];
+        int[] avg = counts[AVERAGE];
+        for (int i = from; i < to; i++) {
+            int rgb = pixels[i];
+            int rv = (rgb >> 16) & 0xff;
+            int gv = (rgb >> 8) & 0xff;
+            int bv = rgb & 0xff;
+            r[rv]++;
+            g[gv]++;
+            b[bv]++;
+            a[rgb >>> 24]++;
+            luma[(rv * 3 + gv * 4 + bv * 2) / 9]++;
+            avg[(rv + gv + bv) / 3]++;
+        }
+        for (int c = 0; c < bins.length; c++) {
+            for (int v = 0; v < 256; v++) {
+                bins[c][v] += counts[c][v];
+            }
+        }
+        count += to - from;
+    }
+
+    void merge(Histogram other) {
+        for (int c = 0; c < bins.length; c++) {
+            for (int v = 0; v < 256; v++) {
+                bins[c][v] += other.bins[c][v];
+            }
+        }
+        count += other.count;
+    }
+
+    /**
+     * The 256 bins of a channel. The array is shared, do not modify it.
+     */
+    public long[] bins(int channel) {
+        return bins[channel];
+    }
+
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Lowest level present, 255 for an empty image.
+     */
+    public int min(int channel) {
+        return Filters.minLevel(bins[channel]);
+    }
+
+    /**
+     * Highest level present, 0 for an empty image.
+     */
+    public int max(int channel) {
+        return Filters.maxLevel(bins[channel]);
+    }
+
+    public double mean(int channel) {
+        long sum = 0;
+        long[] h = bins[channel];
+        for (int v = 0; v < 256; v++) {
+            sum += v * h[v];
+        }
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    public double variance(int channel) {
+        double mean = mean(channel);
+        double sum = 0;
+        long[] h = bins[channel];
+        for (int v = 0; v < 256; v++) {
+            sum += (v - mean) * (v - mean) * h[v];
+        }
+        return count == 0 ? 0 : sum / count;
+    }
+
+    /**
+     * Smallest level such that at least the fraction p (0..1) of the pixels are at or below it.
+     */
+    public int percentile(int channel, double p) {
+        long target = (long) Math.ceil(p * count);
+        long cumulative = 0;
+        long[] h = bins[channel];
+        for (int v = 0; v < 256; v++) {
+            cumulative += h[v];
+            if (cumulative >= target && cumulative > 0) {
+                return v;
+            }
+        }
+        return 255;
+    }
+}
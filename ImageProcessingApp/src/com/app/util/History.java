@@ -0,0 +1,209 @@
+package com.app.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Undo/redo list of processing steps with a byte budget for their snapshots.
+ * <p>
+ * Every step is an operation applied to the loaded image, so a step can always be rebuilt
+ * from its operation alone. Snapshots are kept deflated at the fastest level; when their
+ * total size goes over the budget the oldest snapshots are dropped and those steps are
+ * recomputed from their operation when they are visited again. Operations that use a new
+ * random seed on every run, such as noise, come back with different noise in that case.
+ * <p>
+ * The list is not thread safe; {@link #record} and {@link #snapshot} may run on any thread.
+ */
+public final class History {
+    private static final int CHUNK = 16384;
+
+    /**
+     * One step: the operation and, unless it was evicted, its deflated result.
+     */
+    public static final class Step {
+        final Operation op;
+        final int width;
+        final int height;
+        private byte[] packed;
+        private ArgbRaster result;
+
+        private Step(Operation op, int width, int height, byte[] packed, ArgbRaster result) {
+            this.op = op;
+            this.width = width;
+            this.height = height;
+            this.packed = packed;
+            this.result = result;
+        }
+
+        public Operation op() {
+            return op;
+        }
+
+        /**
+         * Result that was recorded with the step, handed out once so it is not kept twice.
+         */
+        public ArgbRaster takeResult() {
+            ArgbRaster r = result;
+            result = null;
+            return r;
+        }
+    }
+
+    private final long budget;
+    private final List<Step> steps = new ArrayList<>();
+    private int current = -1;
+    private long used;
+
+    /**
+     * @param budget most bytes of deflated snapshots to keep
+     */
+    public History(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * Builds a step for op and its result, deflating the result. Slow on large images,
+     * so call it where the result is computed rather than on the UI thread.
+     */
+    public static Step record(Operation op, ArgbRaster result) {
+        return record(op, result, true);
+    }
+
+    /**
+     * Same as {@link #record(Operation, ArgbRaster)}; without a snapshot the step starts out
+     * as if evicted, for results that are cheap to get again, e.g. from a {@link ResultCache}.
+     */
+    public static Step record(Operation op, ArgbRaster result, boolean snapshot) {
+        return new Step(op, result.width, result.height, snapshot ? deflate(result) : null, result);
+    }
+
+    /**
+     * Step with neither result nor snapshot, for a result that was shown in another form,
+     * e.g. as a {@link BinaryImage}; it is recomputed from op when it is visited again.
+     */
+    public static Step record(Operation op, int width, int height) {
+        return new Step(op, width, height, null, null);
+    }
+
+    /**
+     * Makes step the current one, dropping the steps that could have been redone.
+     */
+    public void push(Step step) {
+        while (steps.size() > current + 1) {
+            drop(steps.remove(steps.size() - 1));
+        }
+        steps.add(step);
+        current++;
+        if (step.packed != null) {
+            used += step.packed.length;
+        }
+        for (int i = 0; i < steps.size() && used > budget; i++) {
+            drop(steps.get(i));
+        }
+    }
+
+    public boolean canUndo() {
+        return current >= 0;
+    }
+
+    public boolean canRedo() {
+        return current < steps.size() - 1;
+    }
+
+    /**
+     * Steps back; returns the step that is now current, or null for the loaded image.
+     */
+    public Step undo() {
+        if (!canUndo()) {
+            throw new IllegalStateException("Nothing to undo");
+        }
+        current--;
+        return current >= 0 ? steps.get(current) : null;
+    }
+
+    public Step redo() {
+        if (!canRedo()) {
+            throw new IllegalStateException("Nothing to redo");
+        }
+        return steps.get(++current);
+    }
+
+    public void clear() {
+        steps.clear();
+        current = -1;
+        used = 0;
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    /**
+     * Bytes currently used by snapshots.
+     */
+    public long usedBytes() {
+        return used;
+    }
+
+    /**
+     * Result of step as a new raster inflated from its snapshot, or null when the snapshot
+     * was evicted or has another size, and the step has to be recomputed from {@link Step#op()}.
+     */
+    public static ArgbRaster snapshot(Step step, int width, int height) {
+        byte[] packed = step.packed;
+        if (packed == null || step.width != width || step.height != height) {
+            return null;
+        }
+        ArgbRaster dst = new ArgbRaster(width, height);
+        inflate(packed, dst);
+        return dst;
+    }
+
+    private void drop(Step step) {
+        if (step.packed != null) {
+            used -= step.packed.length;
+            step.packed = null;
+        }
+    }
+
+    private static byte[] deflate(ArgbRaster raster) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(1024, raster.size() / 8));
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try (DeflaterOutputStream stream = new DeflaterOutputStream(out, deflater, CHUNK * 4)) {
+            byte[] bytes = new byte[CHUNK * 4];
+            for (int i = 0, n = raster.size(); i < n; i += CHUNK) {
+                int m = Math.min(CHUNK, n - i);
+                ByteBuffer.wrap(bytes).asIntBuffer().put(raster.pixels, i, m);
+                stream.write(bytes, 0, m * 4);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            deflater.end();
+        }
+        return out.toByteArray();
+    }
+
+    private static void inflate(byte[] packed, ArgbRaster dst) {
+        try (InflaterInputStream stream = new InflaterInputStream(new ByteArrayInputStream(packed))) {
+            byte[] bytes = new byte[CHUNK * 4];
+            for (int i = 0, n = dst.size(); i < n; i += CHUNK) {
+                int m = Math.min(CHUNK, n - i);
+                if (stream.readNBytes(bytes, 0, m * 4) != m * 4) {
+                    throw new IllegalStateException("Truncated history snapshot");
+                }
+                ByteBuffer.wrap(bytes).asIntBuffer().get(dst.pixels, i, m);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.app.util;
+
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.concurrent.CancellationException;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.event.IIOWriteProgressListener;
+import javax.imageio.stream.ImageOutputStream;
+
+/**
+ * Writes a raster to an image file at its own resolution with an ImageIO writer.
+ * <p>
+ * png and gif keep the alpha channel; other formats get TYPE_INT_RGB, which shares the
+ * raster layout, so either way the conversion is a single array copy. The writer reports
+ * to a {@link Progress} and is aborted when it is cancelled. Needs no JavaFX classes.
+ */
+public final class ImageExport {
+
+    private final String format;
+    private float jpegQuality = 0.75f;
+    private int pngCompression = 4;
+
+    public ImageExport(String format) {
+        this.format = format.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * JPEG quality from 0 (smallest) to 1 (best); 0.75 by default, as in ImageIO.
+     */
+    public ImageExport setJpegQuality(float quality) {
+        if (quality < 0 || quality > 1) {
+            throw new IllegalArgumentException("JPEG quality must be between 0 and 1: " + quality);
+        }
+        this.jpegQuality = quality;
+        return this;
+    }
+
+    /**
+     * PNG deflate level from 0 (fastest) to 9 (smallest); 4 by default, as in ImageIO.
+     */
+    public ImageExport setPngCompression(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("PNG compression must be between 0 and 9: " + level);
+        }
+        this.pngCompression = level;
+        return this;
+    }
+
+    public String format() {
+        return format;
+    }
+
+    public boolean keepsAlpha() {
+        return format.equals("png") || format.equals("gif");
+    }
+
+    /**
+     * True when the writer pulls the image a row at a time in order, so that a
+     * {@link StreamPipeline} can hand it rows as they are processed. The JPEG, BMP and GIF
+     * writers ask for the whole image at once.
+     */
+    public boolean canStream() {
+        return format.equals("png") || format.equals("tif") || format.equals("tiff");
+    }
+
+    /**
+     * Writes raster to file, replacing it. On cancellation the partial file is deleted
+     * and CancellationException is thrown.
+     */
+    public void write(ArgbRaster raster, File file, Progress progress) throws IOException {
+        write(AwtRasters.toBufferedImage(raster, keepsAlpha()), file, progress);
+    }
+
+    void write(RenderedImage image, File file, Progress progress) throws IOException {
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(format);
+        if (!writers.hasNext()) {
+            throw new IOException("No writer for " + format);
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (format.equals("jpg") || format.equals("jpeg")) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(jpegQuality);
+        } else if (format.equals("png") && param.canWriteCompressed()) {
+            // The PNG writer uses deflate level (int) (9 * (1 - q)); half a level keeps it exact
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(0f, 1 - (pngCompression + 0.5f) / 9f));
+        }
+
+        boolean[] aborted = new boolean[1];
+        writer.addIIOWriteProgressListener(new IIOWriteProgressListener() {
+            int reported;
+
+            @Override
+            public void imageStarted(ImageWriter source, int imageIndex) {
+                progress.begin(100);
+            }
+
+            @Override
+            public void imageProgress(ImageWriter source, float percentageDone) {
+                int done = (int) percentageDone;
+                if (done > reported) {
+                    progress.advance(done - reported);
+                    reported = done;
+                }
+                if (progress.isCancelled()) {
+                    source.abort();
+                }
+            }
+
+            @Override
+            public void imageComplete(ImageWriter source) {
+                progress.advance(100 - reported);
+            }
+
+            @Override
+            public void thumbnailStarted(ImageWriter source, int imageIndex, int thumbnailIndex) {
+            }
+
+            @Override
+            public void thumbnailProgress(ImageWriter source, float percentageDone) {
+            }
+
+            @Override
+            public void thumbnailComplete(ImageWriter source) {
+            }
+
+            @Override
+            public void writeAborted(ImageWriter source) {
+                aborted[0] = true;
+            }
+        });
+
+        progress.checkCancelled();
+        if (file.exists() && !file.delete()) {
+            throw new IOException("Cannot replace " + file);
+        }
+        try (ImageOutputStream out = ImageIO.createImageOutputStream(file)) {
+            if (out == null) {
+                throw new IOException("Cannot write " + file);
+            }
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        if (aborted[0]) {
+            file.delete();
+            throw new CancellationException();
+        }
+    }
+}
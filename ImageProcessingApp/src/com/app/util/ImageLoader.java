@@ -0,0 +1,234 @@
+package com.app.util;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.CancellationException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes an image file with an ImageIO reader, whole or in part, at full resolution or
+ * subsampled.
+ * <p>
+ * Subsampling keeps every n-th pixel of every n-th row while decoding, so a coarse version
+ * of a huge file never needs the memory of the full one, and a source region decodes only
+ * the rectangle asked for. The file stays open until {@link #close()}, so several passes
+ * and regions can be read without parsing the header again. The reader reports to a
+ * {@link Progress} and is aborted when it is cancelled. Reads are serialized; any thread
+ * may call them. Needs no JavaFX classes.
+ */
+public final class ImageLoader implements Closeable {
+
+    /**
+     * Pixels handed over per strip when an image is read as strips of regions.
+     */
+    private static final int STRIP_PIXELS = 1 << 22;
+
+    /**
+     * Receives decoded rows in order; the pixels are only valid during the call.
+     */
+    public interface RowSink {
+        void row(int[] argb, int offset, int y);
+    }
+
+    public final int width;
+    public final int height;
+    private final ImageInputStream input;
+    private final ImageReader reader;
+
+    private ImageLoader(ImageInputStream input, ImageReader reader) throws IOException {
+        this.input = input;
+        this.reader = reader;
+        this.width = reader.getWidth(0);
+        this.height = reader.getHeight(0);
+    }
+
+    /**
+     * Opens file and reads its header; the pixels are not decoded yet.
+     */
+    public static ImageLoader open(File file) throws IOException {
+        ImageInputStream input = ImageIO.createImageInputStream(file);
+        if (input == null) {
+            throw new IOException("Cannot read " + file);
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+        if (!readers.hasNext()) {
+            input.close();
+            throw new IOException("No reader for " + file);
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(input, false, true);
+        try {
+            return new ImageLoader(input, reader);
+        } catch (IOException | RuntimeException e) {
+            reader.dispose();
+            input.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Smallest power of two to subsample an image of the given size by so that it has
+     * at most maxPixels pixels.
+     */
+    public static int subsamplingFor(int width, int height, long maxPixels) {
+        int factor = 1;
+        while ((long) ceilDiv(width, factor) * ceilDiv(height, factor) > maxPixels
+                && (factor < width || factor < height)) {
+            factor *= 2;
+        }
+        return factor;
+    }
+
+    /**
+     * Decodes the whole image keeping every subsampling-th pixel in both directions.
+     */
+    public ArgbRaster read(int subsampling, Progress progress) throws IOException {
+        return readRegion(new Rectangle(0, 0, width, height), subsampling, progress);
+    }
+
+    /**
+     * Decodes only region, clipped to the image, keeping every subsampling-th pixel of it
+     * in both directions. Pixel (0, 0) of the result is the top left corner of the region.
+     */
+    public synchronized ArgbRaster readRegion(Rectangle region, int subsampling, Progress progress)
+            throws IOException {
+        if (subsampling < 1) {
+            throw new IllegalArgumentException("Subsampling must be at least 1: " + subsampling);
+        }
+        Rectangle clipped = region.intersection(new Rectangle(0, 0, width, height));
+        if (clipped.isEmpty()) {
+            throw new IllegalArgumentException("Region outside the image: " + region);
+        }
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(clipped);
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        return AwtRasters.read(readWithProgress(param, progress));
+    }
+
+    private BufferedImage readWithProgress(ImageReadParam param, Progress progress) throws IOException {
+        boolean[] aborted = new boolean[1];
+        IIOReadProgressListener listener = new IIOReadProgressListener() {
+            int reported;
+
+            @Override
+            public void imageStarted(ImageReader source, int imageIndex) {
+                progress.begin(100);
+            }
+
+            @Override
+            public void imageProgress(ImageReader source, float percentageDone) {
+                int done = (int) percentageDone;
+                if (done > reported) {
+                    progress.advance(done - reported);
+                    reported = done;
+                }
+                if (progress.isCancelled()) {
+                    source.abort();
+                }
+            }
+
+            @Override
+            public void imageComplete(ImageReader source) {
+                progress.advance(100 - reported);
+            }
+
+            @Override
+            public void sequenceStarted(ImageReader source, int minIndex) {
+            }
+
+            @Override
+            public void sequenceComplete(ImageReader source) {
+            }
+
+            @Override
+            public void thumbnailStarted(ImageReader source, int imageIndex, int thumbnailIndex) {
+            }
+
+            @Override
+            public void thumbnailProgress(ImageReader source, float percentageDone) {
+            }
+
+            @Override
+            public void thumbnailComplete(ImageReader source) {
+            }
+
+            @Override
+            public void readAborted(ImageReader source) {
+                aborted[0] = true;
+            }
+        };
+
+        progress.checkCancelled();
+        reader.addIIOReadProgressListener(listener);
+        BufferedImage image;
+        try {
+            image = reader.read(0, param);
+        } finally {
+            reader.removeIIOReadProgressListener(listener);
+        }
+        if (aborted[0]) {
+            throw new CancellationException();
+        }
+        return image;
+    }
+
+    /**
+     * Decodes the image at full resolution and hands it to sink one row at a time, top to
+     * bottom, without ever holding more than a strip of rows.
+     * <p>
+     * Readers that decode rows in order, such as PNG and JPEG, write into a destination that
+     * keeps only the row being decoded, so the file is read once. Other readers, e.g. for
+     * TIFF and BMP, interlaced images and images over 2^31 samples are read as strips of
+     * source regions instead, which for formats that cannot seek to a row (PNG, JPEG)
+     * decodes the file again from the start for every strip.
+     */
+    public synchronized void readRows(RowSink sink, Progress progress) throws IOException {
+        progress.checkCancelled();
+        RowDestination destination = reader.isImageTiled(0) ? null : RowDestination.of(reader, width, height, sink);
+        if (destination != null) {
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setDestination(destination.image);
+            try {
+                readWithProgress(param, progress);
+                destination.finish();
+                return;
+            } catch (IOException | RuntimeException e) {
+                if (destination.rowsSent > 0 || e instanceof CancellationException) {
+                    throw e;
+                }
+                // The reader cannot write rows in order into a plain DataBuffer, e.g. because
+                // the image is interlaced or bottom-up; nothing was sent yet, so read strips
+            }
+        }
+        int rows = Math.max(1, Math.min(height, STRIP_PIXELS / width));
+        progress.begin(height);
+        for (int y = 0; y < height; y += rows) {
+            progress.checkCancelled();
+            int n = Math.min(rows, height - y);
+            ArgbRaster strip = readRegion(new Rectangle(0, y, width, n), 1, Progress.NONE);
+            for (int r = 0; r < n; r++) {
+                sink.row(strip.pixels, r * width, y + r);
+            }
+            progress.advance(n);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        reader.dispose();
+        input.close();
+    }
+
+    private static int ceilDiv(int a, int b) {
+        return (a + b - 1) / b;
+    }
+}
@@ -0,0 +1,51 @@
+package com.app.util;
+
+/**
+ * Iterative mean (isodata) threshold computed from a 256-bin histogram.
+ * <p>
+ * Starting from t = 230, the pixels are split into values below t and values at or above it,
+ * and t moves to the midpoint of the two class means until it stops changing. Prefix sums of
+ * the histogram make every iteration O(1) after an O(256) setup, with constant memory.
+ */
+public final class IterativeThreshold {
+    static final int START = 230;
+    static final int MAX_ITERATIONS = 256;
+
+    public final int threshold;
+    public final int iterations;
+
+    private IterativeThreshold(int threshold, int iterations) {
+        this.threshold = threshold;
+        this.iterations = iterations;
+    }
+
+    public static IterativeThreshold of(long[] hist) {
+        // count[v] and sum[v] cover the levels below v
+        long[] count = new long[257];
+        long[] sum = new long[257];
+        for (int v = 0; v < 256; v++) {
+            count[v + 1] = count[v] + hist[v];
+            sum[v + 1] = sum[v] + v * hist[v];
+        }
+        long total = count[256];
+
+        int t = START;
+        int iterations = 0;
+        int tPrev;
+        do {
+            tPrev = t;
+            long lowCount = count[t];
+            long highCount = total - lowCount;
+            int lowMean = lowCount == 0 ? 0 : (int) (sum[t] / lowCount);
+            int highMean = highCount == 0 ? 0 : (int) ((sum[256] - sum[t]) / highCount);
+            t = (lowMean + highMean) / 2;
+            iterations++;
+        } while (t != tPrev && iterations < MAX_ITERATIONS);
+        return new IterativeThreshold(t, iterations);
+    }
+
+    @Override
+    public String toString() {
+        return "threshold " + threshold + " after " + iterations + " iterations";
+    }
+}
@@ -0,0 +1,157 @@
+package com.app.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Adaptive thresholding against the mean and deviation of the average brightness in a
+ * square window around every pixel, for scans whose lighting varies across the page.
+ * <p>
+ * {@link Method#BRADLEY} makes a pixel white when it is more than percent darker than the
+ * window mean; {@link Method#SAUVOLA} when it is at most mean * (1 + k * (deviation / 128 - 1)),
+ * which also keeps flat areas black. White and black mean the same as for
+ * {@link Filters#threshold}, so the results can be used wherever the global ones are.
+ * <p>
+ * Window sums come from summed-area tables of the brightness and, for Sauvola, of its
+ * squares, so each pixel costs four lookups per table whatever the window size. Windows
+ * are cut off at the image edges. The sums are kept in ints that may wrap around: the
+ * difference of four entries is still exact as long as a window sum stays below 2^32,
+ * which {@link #MAX_RADIUS} guarantees.
+ */
+public final class LocalThreshold {
+
+    public enum Method {
+        BRADLEY, SAUVOLA
+    }
+
+    /**
+     * Largest radius whose window sums of 8-bit levels fit in 32 bits.
+     */
+    public static final int MAX_RADIUS = 2047;
+
+    public final Method method;
+    public final int radius;
+    public final double k;
+
+    /**
+     * @param radius rows and columns on either side of a pixel, 1 to {@link #MAX_RADIUS}
+     * @param k      percent below the mean for Bradley, usually 15, or the weight of the
+     *               deviation for Sauvola, usually 0.2 to 0.5
+     */
+    public LocalThreshold(Method method, int radius, double k) {
+        if (radius < 1 || radius > MAX_RADIUS) {
+            throw new IllegalArgumentException("Radius must be 1 to " + MAX_RADIUS + ": " + radius);
+        }
+        this.method = method;
+        this.radius = radius;
+        this.k = k;
+    }
+
+    /**
+     * Writes the black and white result to dst, keeping the alpha of src.
+     */
+    public void apply(ArgbRaster src, ArgbRaster dst, ForkJoinPool pool, Progress progress) {
+        Tables tables = new Tables(src, method == Method.SAUVOLA, pool);
+        progress.checkCancelled();
+        int[] in = src.pixels;
+        int[] out = dst.pixels;
+        int w = src.width;
+        RowBands.run(pool, src.height, progress, (y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int row = y * w;
+                for (int x = 0; x < w; x++) {
+                    int rgb = in[row + x];
+                    out[row + x] = white(tables, x, y, Filters.avg(rgb))
+                            ? (rgb & 0xff000000) + 0xffffff : rgb & 0xff000000;
+                }
+            }
+        });
+    }
+
+    /**
+     * Same result as {@link #apply}, packed 64 pixels per long; the alpha channel is not kept.
+     */
+    public BinaryImage mask(ArgbRaster src, ForkJoinPool pool) {
+        Tables tables = new Tables(src, method == Method.SAUVOLA, pool);
+        BinaryImage dst = new BinaryImage(src.width, src.height);
+        int[] in = src.pixels;
+        int w = src.width;
+        RowBands.run(pool, src.height, (y0, y1) -> {
+            for (int y = y0; y < y1; y++) {
+                int row = y * w;
+                int yy = y;
+                dst.packRow(y, x -> white(tables, x, yy, Filters.avg(in[row + x])));
+            }
+        });
+        return dst;
+    }
+
+    private boolean white(Tables t, int x, int y, int v) {
+        int x0 = Math.max(0, x - radius);
+        int x1 = Math.min(t.width, x + radius + 1);
+        int y0 = Math.max(0, y - radius);
+        int y1 = Math.min(t.height, y + radius + 1);
+        int a = y0 * t.stride + x0;
+        int b = y0 * t.stride + x1;
+        int c = y1 * t.stride + x0;
+        int d = y1 * t.stride + x1;
+        long n = (long) (x1 - x0) * (y1 - y0);
+        long sum = (t.sums[d] - t.sums[b] - t.sums[c] + t.sums[a]) & 0xffffffffL;
+        if (method == Method.BRADLEY) {
+            return v * n * 100 <= sum * (100 - k);
+        }
+        double mean = (double) sum / n;
+        double variance = (double) (t.squares[d] - t.squares[b] - t.squares[c] + t.squares[a]) / n - mean * mean;
+        double deviation = Math.sqrt(Math.max(0, variance));
+        return v <= mean * (1 + k * (deviation / 128 - 1));
+    }
+
+    /**
+     * Summed-area tables with a leading zero row and column: entry (x, y) holds the sum
+     * over all pixels left of x and above y.
+     */
+    private static final class Tables {
+        final int width;
+        final int height;
+        final int stride;
+        final int[] sums;
+        final long[] squares;
+
+        Tables(ArgbRaster src, boolean withSquares, ForkJoinPool pool) {
+            width = src.width;
+            height = src.height;
+            stride = width + 1;
+            sums = new int[stride * (height + 1)];
+            squares = withSquares ? new long[sums.length] : null;
+            int[] in = src.pixels;
+            // Sums along each row, a band of rows at a time
+            RowBands.run(pool, height, (y0, y1) -> {
+                for (int y = y0; y < y1; y++) {
+                    int s = 0;
+                    long q = 0;
+                    int t = (y + 1) * stride + 1;
+                    for (int i = y * width, end = i + width; i < end; i++, t++) {
+                        int v = Filters.avg(in[i]);
+                        s += v;
+                        sums[t] = s;
+                        if (squares != null) {
+                            q += v * v;
+                            squares[t] = q;
+                        }
+                    }
+                }
+            });
+            // Then down each column, with bands of columns instead of rows
+            RowBands.run(pool, stride, (x0, x1) -> {
+                for (int y = 2; y <= height; y++) {
+                    int t = y * stride;
+                    for (int x = x0; x < x1; x++) {
+                        sums[t + x] += sums[t - stride + x];
+                        if (squares != null) {
+                            squares[t + x] += squares[t - stride + x];
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.app.util;
+
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Per-channel 256-entry lookup table for point operations.
+ * Every op is evaluated once per channel value when the table is built, so applying it
+ * costs three array lookups per pixel no matter how expensive the original formula is.
+ * Results are clamped to 0..255.
+ * <p>
+ * Tables that are known to scale every channel by a percentage or to invert it say so,
+ * so that {@link Simd} kernels can compute them instead of looking them up.
+ */
+public final class Lut {
+    final int[] r;
+    final int[] g;
+    final int[] b;
+
+    /**
+     * v * scalePercent / 100 for all three channels, or -1 when the table is not known to be.
+     */
+    final int scalePercent;
+
+    /**
+     * True when the table is 255 - v for all three channels.
+     */
+    final boolean inverts;
+
+    private Lut(int[] r, int[] g, int[] b) {
+        this(r, g, b, -1, false);
+    }
+
+    private Lut(int[] r, int[] g, int[] b, int scalePercent, boolean inverts) {
+        this.r = r;
+        this.g = g;
+        this.b = b;
+        this.scalePercent = scalePercent;
+        this.inverts = inverts;
+    }
+
+    public static Lut identity() {
+        int[] t = table(v -> v);
+        return new Lut(t, t, t, 100, false);
+    }
+
+    /**
+     * Same function on all three channels.
+     */
+    public static Lut of(IntUnaryOperator f) {
+        int[] t = table(f);
+        return new Lut(t, t, t);
+    }
+
+    public static Lut of(IntUnaryOperator fr, IntUnaryOperator fg, IntUnaryOperator fb) {
+        return new Lut(table(fr), table(fg), table(fb));
+    }
+
+    public static Lut invert() {
+        int[] t = table(v -> 255 - v);
+        return new Lut(t, t, t, -1, true);
+    }
+
+    public static Lut addConst(int c) {
+        return of(v -> v + c);
+    }
+
+    public static Lut log() {
+        return of(v -> (int) Math.log(v));
+    }
+
+    /**
+     * 255 * (v / max) ^ p
+     */
+    public static Lut pow(int p, int max) {
+        return of(v -> (int) (255 * Math.pow((double) v / (double) max, p)));
+    }
+
+    public static Lut brightness(int percent) {
+        int[] t = table(v -> (v * percent) / 100);
+        return new Lut(t, t, t, percent >= 0 && percent <= Simd.MAX_PERCENT ? percent : -1, false);
+    }
+
+    /**
+     * Stretches [min, max] of each channel to the full 0..255 range.
+     */
+    public static Lut linearContrast(double rMin, double rMax, double gMin, double gMax, double bMin, double bMax) {
+        return of(stretch(rMin, rMax), stretch(gMin, gMax), stretch(bMin, bMax));
+    }
+
+    private static IntUnaryOperator stretch(double min, double max) {
+        return v -> (int) (((v - min) / (max - min)) * 255);
+    }
+
+    /**
+     * Table equivalent to applying this one and then next.
+     */
+    public Lut then(Lut next) {
+        Lut known = scalePercent == 100 ? next : next.scalePercent == 100 ? this : null;
+        return new Lut(compose(r, next.r), compose(g, next.g), compose(b, next.b),
+                known != null ? known.scalePercent : -1, known != null && known.inverts);
+    }
+
+    public int apply(int argb) {
+        return (argb & 0xff000000) | (r[(argb >> 16) & 0xff] << 16) | (g[(argb >> 8) & 0xff] << 8) | b[argb & 0xff];
+    }
+
+    private static int[] compose(int[] first, int[] second) {
+        int[] t = new int[256];
+        for (int v = 0; v < 256; v++) {
+            t[v] = second[first[v]];
+        }
+        return t;
+    }
+
+    private static int[] table(IntUnaryOperator f) {
+        int[] t = new int[256];
+        for (int v = 0; v < 256; v++) {
+            t[v] = Math.min(255, Math.max(0, f.applyAsInt(v)));
+        }
+        return t;
+    }
+}
@@ -0,0 +1,315 @@
+package com.app.util;
+
+import java.awt.Rectangle;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Pixels of an image kept in a memory-mapped file instead of on the Java heap, for images
+ * too large to hold there; the OS pages rows in and out as they are used.
+ * <p>
+ * Rows are stored one after another as native order ints, the layout of {@link ArgbRaster},
+ * and mapped in chunks of whole rows of at most 1 GB. {@link #apply} runs an operation
+ * one band of rows at a time: the band and the halo rows its kernel reads are copied to
+ * an ArgbRaster, processed by the usual kernel on the pool, and the band is written back,
+ * so the heap never holds more than a band. Rows may be read from any number of threads,
+ * but must not be read while they are written.
+ */
+public final class MappedRaster implements Closeable {
+
+    private static final long CHUNK_BYTES = 1L << 30;
+
+    /**
+     * Pixels copied to the heap per band, set with -Dimageapp.band.pixels.
+     */
+    static final int BAND_PIXELS = Integer.getInteger("imageapp.band.pixels", 1 << 24);
+
+    private interface BandVisitor {
+        void visit(ArgbRaster band, int fromRow, int toRow, int top);
+    }
+
+    public final int width;
+    public final int height;
+    private final Path path;
+    private final boolean temporary;
+    private final FileChannel channel;
+    private final IntBuffer[] chunks;
+    private final int chunkRows;
+
+    private MappedRaster(Path path, boolean temporary, int width, int height) throws IOException {
+        if (width < 1 || height < 1 || width * 4L > CHUNK_BYTES) {
+            throw new IllegalArgumentException("Bad raster size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        this.path = path;
+        this.temporary = temporary;
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.chunkRows = (int) Math.min(height, CHUNK_BYTES / (width * 4L));
+        this.chunks = new IntBuffer[(height + chunkRows - 1) / chunkRows];
+        try {
+            for (int c = 0; c < chunks.length; c++) {
+                long rows = Math.min(chunkRows, height - (long) c * chunkRows);
+                chunks[c] = channel.map(FileChannel.MapMode.READ_WRITE, c * (long) chunkRows * width * 4,
+                        rows * width * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * New black transparent raster in a temporary file that is deleted on {@link #close()}.
+     */
+    public static MappedRaster create(int width, int height) throws IOException {
+        Path path = Files.createTempFile("imageapp", ".raster");
+        try {
+            return new MappedRaster(path, true, width, height);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(path);
+            throw e;
+        }
+    }
+
+    /**
+     * Raster stored in file, which is kept on close. A new file starts out black and
+     * transparent; an existing one keeps its pixels and is extended if it is too short.
+     */
+    public static MappedRaster create(File file, int width, int height) throws IOException {
+        return new MappedRaster(file.toPath(), false, width, height);
+    }
+
+    /**
+     * Decodes the image of loader at full resolution into a new temporary raster. The file
+     * is decoded once, top to bottom, with rows going straight into the mapping, see
+     * {@link ImageLoader#readRows}.
+     */
+    public static MappedRaster load(ImageLoader loader, Progress progress) throws IOException {
+        MappedRaster raster = create(loader.width, loader.height);
+        try {
+            loader.readRows(raster::putRow, progress);
+            return raster;
+        } catch (IOException | RuntimeException e) {
+            raster.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the raster to file, handing the writer a few rows at a time so that the heap
+     * never holds the whole image.
+     *
+     * @throws IllegalArgumentException when the format of export cannot be written that
+     *                                  way, see {@link ImageExport#canStream()}
+     */
+    public void save(ImageExport export, File file, Progress progress) throws IOException {
+        if (!export.canStream()) {
+            throw new IllegalArgumentException("Cannot stream to " + export.format());
+        }
+        export.write(new RowImage(width, height, export.keepsAlpha()) {
+            @Override
+            void copyRows(Rectangle r, int[] data) {
+                for (int y = r.y; y < r.y + r.height; y++) {
+                    int c = y / chunkRows;
+                    chunks[c].get((y - c * chunkRows) * width + r.x, data, (y - r.y) * r.width, r.width);
+                }
+            }
+        }, file, progress);
+    }
+
+    private void putRow(int[] argb, int offset, int y) {
+        int c = y / chunkRows;
+        chunks[c].put((y - c * chunkRows) * width, argb, offset, width);
+    }
+
+    /**
+     * Rows per band handed to kernels, so that a band has about BAND_PIXELS pixels.
+     */
+    public int bandRows() {
+        return Math.max(1, Math.min(height, BAND_PIXELS / width));
+    }
+
+    /**
+     * Copies rows [fromRow, toRow) into a new raster.
+     */
+    public ArgbRaster read(int fromRow, int toRow) {
+        return read(fromRow, toRow, new int[(toRow - fromRow) * width]);
+    }
+
+    /**
+     * Copies rows [fromRow, toRow) into a raster over buffer, which may be longer.
+     */
+    private ArgbRaster read(int fromRow, int toRow, int[] buffer) {
+        ArgbRaster rows = new ArgbRaster(width, toRow - fromRow, buffer);
+        for (int y = fromRow; y < toRow; ) {
+            int c = y / chunkRows;
+            int n = Math.min(toRow, (c + 1) * chunkRows) - y;
+            chunks[c].get((y - c * chunkRows) * width, rows.pixels, (y - fromRow) * width, n * width);
+            y += n;
+        }
+        return rows;
+    }
+
+    /**
+     * Copies all rows of src to the rows starting at row.
+     */
+    public void write(int row, ArgbRaster src) {
+        write(src, 0, src.height, row);
+    }
+
+    /**
+     * Copies rows [fromRow, toRow) of src to the rows starting at dstRow.
+     */
+    public void write(ArgbRaster src, int fromRow, int toRow, int dstRow) {
+        if (src.width != width) {
+            throw new IllegalArgumentException("Row width " + src.width + " instead of " + width);
+        }
+        for (int y = fromRow; y < toRow; ) {
+            int row = dstRow + y - fromRow;
+            int c = row / chunkRows;
+            int n = Math.min(toRow - y, (c + 1) * chunkRows - row);
+            chunks[c].put((row - c * chunkRows) * width, src.pixels, y * width, n * width);
+            y += n;
+        }
+    }
+
+    /**
+     * Box average of factor x factor blocks, as a heap raster for display, like the preview
+     * of {@link Filters#downscale}.
+     */
+    public ArgbRaster downscale(int factor, ForkJoinPool pool, Progress progress) {
+        ArgbRaster dst = new ArgbRaster((width + factor - 1) / factor, (height + factor - 1) / factor);
+        int rows = Math.max(1, bandRows() / factor) * factor;
+        progress.checkCancelled();
+        progress.begin(height);
+        for (int y = 0; y < height; y += rows) {
+            progress.checkCancelled();
+            ArgbRaster band = read(y, Math.min(height, y + rows));
+            ArgbRaster small = new ArgbRaster(dst.width, (band.height + factor - 1) / factor);
+            RowBands.run(pool, small.height, (y0, y1) -> Filters.downscale(band, small, factor, y0, y1));
+            System.arraycopy(small.pixels, 0, dst.pixels, y / factor * dst.width, small.size());
+            progress.advance(band.height);
+        }
+        return dst;
+    }
+
+    /**
+     * Runs op from this raster into dst, which must have the same size, one band at a time.
+     * dst may be this raster itself when op reads no halo rows. Statistics that op needs,
+     * such as the histogram, take one more pass over the rows first.
+     *
+     * @throws IllegalStateException when op is not {@link Operation#isBanded() banded}
+     */
+    public void apply(Operation op, MappedRaster dst, ForkJoinPool pool, Progress progress) {
+        if (dst.width != width || dst.height != height) {
+            throw new IllegalArgumentException("Destination is " + dst.width + "x" + dst.height);
+        }
+        int halo = op.halo();
+        if (dst == this && halo > 0) {
+            throw new IllegalArgumentException(op + " reads neighbouring rows and cannot run in place");
+        }
+        progress.checkCancelled();
+        Operation.Kernel kernel = op.prepare(stats(pool, progress));
+        progress.begin(height);
+        int rows = bandRows();
+        int[] inBuffer = new int[(rows + 2 * halo) * width];
+        int[] outBuffer = new int[inBuffer.length];
+        for (int y = 0; y < height; y += rows) {
+            progress.checkCancelled();
+            int end = Math.min(height, y + rows);
+            int top = Math.max(0, y - halo);
+            ArgbRaster in = read(top, Math.min(height, end + halo), inBuffer);
+            // Kernels may leave pixels unwritten, as they would be in a new raster
+            Arrays.fill(outBuffer, 0, in.size(), 0);
+            ArgbRaster out = new ArgbRaster(width, in.height, outBuffer);
+            kernel.apply(in, out, pool, Progress.NONE);
+            dst.write(out, y - top, end - top, y);
+            progress.advance(end - y);
+        }
+    }
+
+    /**
+     * Statistics of the current pixels for {@link Operation#prepare}, each computed in a
+     * pass over the rows the first time it is asked for. Checks progress for cancellation.
+     */
+    public Operation.Stats stats(ForkJoinPool pool, Progress progress) {
+        return new Operation.Stats() {
+            Histogram histogram;
+            int maxGray = -1;
+            int gradientThreshold = -1;
+
+            @Override
+            public Histogram histogram() {
+                if (histogram == null) {
+                    Histogram total = new Histogram();
+                    forEachBand(0, progress, (band, fromRow, toRow, top) -> total.merge(Histogram.of(band, pool)));
+                    histogram = total;
+                }
+                return histogram;
+            }
+
+            @Override
+            public int maxGray() {
+                if (maxGray < 0) {
+                    int[] max = {Integer.MIN_VALUE};
+                    forEachBand(0, progress, (band, fromRow, toRow, top) ->
+                            max[0] = Math.max(max[0], Filters.maxGrayArgb(band)));
+                    maxGray = max[0] & 0xff;
+                }
+                return maxGray;
+            }
+
+            @Override
+            public int gradientThreshold() {
+                if (gradientThreshold < 0) {
+                    long[] total = new long[2];
+                    forEachBand(1, progress, (band, fromRow, toRow, top) -> {
+                        long[] part = Filters.gradientSums(band,
+                                Math.max(fromRow, 1) - top, Math.min(toRow, height - 1) - top);
+                        total[0] += part[0];
+                        total[1] += part[1];
+                    });
+                    gradientThreshold = total[1] == 0 ? 0 : (int) (total[0] / total[1]);
+                }
+                return gradientThreshold;
+            }
+        };
+    }
+
+    /**
+     * Hands every band, with halo rows above and below where the image has them, to visitor.
+     */
+    private void forEachBand(int halo, Progress progress, BandVisitor visitor) {
+        int rows = bandRows();
+        int[] buffer = new int[(rows + 2 * halo) * width];
+        for (int y = 0; y < height; y += rows) {
+            progress.checkCancelled();
+            int end = Math.min(height, y + rows);
+            int top = Math.max(0, y - halo);
+            visitor.visit(read(top, Math.min(height, end + halo), buffer), y, end, top);
+        }
+    }
+
+    /**
+     * Closes the file, deleting it if it was temporary. The mapping itself is released
+     * by the garbage collector, so the raster must not be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        if (temporary) {
+            Files.deleteIfExists(path);
+        }
+    }
+}
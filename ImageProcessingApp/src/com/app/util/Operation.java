@@ -0,0 +1,167 @@
+package com.app.util;
+
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * One image processing step with its parameters bound, e.g. "brightness:120".
+ * Operations are created by {@link Operations} and do not depend on JavaFX.
+ * <p>
+ * Most operations can also run on an image one band of rows at a time, for images too
+ * large for the heap such as a {@link MappedRaster}; see {@link #isBanded()}.
+ */
+public final class Operation {
+
+    public interface Kernel {
+        void apply(ArgbRaster src, ArgbRaster dst, ForkJoinPool pool, Progress progress);
+    }
+
+    /**
+     * Kernel in two steps: prepare reads what it needs to know about the whole image,
+     * and the kernel it returns then runs on any band of rows on its own, reading at most
+     * {@link #halo()} rows above and below the band.
+     */
+    public interface BandKernel {
+        Kernel prepare(Stats stats);
+    }
+
+    /**
+     * Figures about the whole image that a band kernel may need, computed on first use.
+     */
+    public interface Stats {
+        Histogram histogram();
+
+        /**
+         * Gray level as returned by {@link Filters#maxGray(ArgbRaster)}.
+         */
+        int maxGray();
+
+        /**
+         * Threshold as returned by {@link Filters#findBrightnessGradientThreshold}.
+         */
+        int gradientThreshold();
+    }
+
+    private final String spec;
+    private final Kernel kernel;
+    private final BandKernel bands;
+    private final int halo;
+    private final boolean repeatable;
+
+    Operation(String spec, Kernel kernel) {
+        this(spec, kernel, true);
+    }
+
+    Operation(String spec, Kernel kernel, boolean repeatable) {
+        this.spec = spec;
+        this.kernel = kernel;
+        this.bands = null;
+        this.halo = 0;
+        this.repeatable = repeatable;
+    }
+
+    Operation(String spec, int halo, BandKernel bands) {
+        this(spec, halo, bands, true);
+    }
+
+    Operation(String spec, int halo, BandKernel bands, boolean repeatable) {
+        this.spec = spec;
+        this.kernel = (src, dst, pool, progress) -> bands.prepare(statsOf(src, pool)).apply(src, dst, pool, progress);
+        this.bands = bands;
+        this.halo = halo;
+        this.repeatable = repeatable;
+    }
+
+    /**
+     * Name and parameters in the form accepted by {@link Operations#parse(String)}.
+     */
+    public String spec() {
+        return spec;
+    }
+
+    /**
+     * True when the same source always gives the same result, so the result can be cached.
+     */
+    public boolean isRepeatable() {
+        return repeatable;
+    }
+
+    /**
+     * Reads src and writes dst, which must have the same size. A null pool runs sequentially.
+     */
+    public void apply(ArgbRaster src, ArgbRaster dst, ForkJoinPool pool) {
+        apply(src, dst, pool, Progress.NONE);
+    }
+
+    /**
+     * Same as {@link #apply(ArgbRaster, ArgbRaster, ForkJoinPool)}, reporting to progress.
+     * Kernels that work in row bands report per band and can be cancelled between bands;
+     * the others are checked only before they start. After a cancellation dst is undefined.
+     */
+    public void apply(ArgbRaster src, ArgbRaster dst, ForkJoinPool pool, Progress progress) {
+        progress.checkCancelled();
+        kernel.apply(src, dst, pool, progress);
+        dst.modified();
+    }
+
+    /**
+     * True when the operation can run one band of rows at a time, see {@link #prepare(Stats)}.
+     * Geometric operations that may read any row of the source cannot.
+     */
+    public boolean isBanded() {
+        return bands != null;
+    }
+
+    /**
+     * Rows above and below a band that its kernel reads.
+     */
+    public int halo() {
+        return halo;
+    }
+
+    /**
+     * Kernel for bands of the image that stats describe. Run on a band with {@link #halo()}
+     * extra rows on either side (fewer at the image edges) it gives the rows of the whole
+     * image result for the band itself; the halo rows of its output are not valid.
+     *
+     * @throws IllegalStateException when the operation is not {@link #isBanded() banded}
+     */
+    public Kernel prepare(Stats stats) {
+        if (bands == null) {
+            throw new IllegalStateException(spec + " needs the whole image");
+        }
+        return bands.prepare(stats);
+    }
+
+    public ArgbRaster apply(ArgbRaster src, ForkJoinPool pool) {
+        ArgbRaster dst = new ArgbRaster(src.width, src.height);
+        apply(src, dst, pool);
+        return dst;
+    }
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    /**
+     * Stats of an image held in one raster, reusing its cached histogram.
+     */
+    static Stats statsOf(ArgbRaster src, ForkJoinPool pool) {
+        return new Stats() {
+            @Override
+            public Histogram histogram() {
+                return src.histogram(pool);
+            }
+
+            @Override
+            public int maxGray() {
+                return Filters.maxGray(src);
+            }
+
+            @Override
+            public int gradientThreshold() {
+                return Filters.findBrightnessGradientThreshold(src, pool);
+            }
+        };
+    }
+}
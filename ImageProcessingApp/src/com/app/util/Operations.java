@@ -0,0 +1,363 @@
+package com.app.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Factory for every {@link Operation}, by method or by spec string.
+ * <p>
+ * A spec is the operation name followed by its parameters separated by ':',
+ * e.g. "gray", "brightness:120" or "emboss:45:1.5:128:128:128".
+ * A list of specs is separated by ','.
+ */
+public final class Operations {
+
+    private Operations() {
+    }
+
+    public static Operation copy() {
+        return banded("copy", 0, (src, dst, pool, progress) -> Filters.copy(src, dst));
+    }
+
+    public static Operation invert() {
+        return point("invert", stats -> new PointChain().then(Lut.invert()));
+    }
+
+    public static Operation addConst(int c) {
+        return point("addConst:" + c, stats -> new PointChain().then(Lut.addConst(c)));
+    }
+
+    public static Operation substractConst(int c) {
+        return point("substractConst:" + c, stats -> new PointChain().then(Lut.addConst(-c)));
+    }
+
+    public static Operation log() {
+        return point("log", stats -> new PointChain().then(Lut.log()));
+    }
+
+    public static Operation pow(int p) {
+        return point("pow:" + p, stats -> new PointChain().then(Lut.pow(p, stats.maxGray())));
+    }
+
+    public static Operation gray() {
+        return point("gray", stats -> new PointChain().gray());
+    }
+
+    public static Operation brightness(int percent) {
+        return point("brightness:" + percent, stats -> new PointChain().then(Lut.brightness(percent)));
+    }
+
+    public static Operation linearContrast() {
+        return point("linearContrast", stats -> {
+            Histogram h = stats.histogram();
+            return new PointChain().then(Lut.linearContrast(
+                    h.min(Histogram.RED), h.max(Histogram.RED),
+                    h.min(Histogram.GREEN), h.max(Histogram.GREEN),
+                    h.min(Histogram.BLUE), h.max(Histogram.BLUE)));
+        });
+    }
+
+    public static Operation otsuThreshold() {
+        return threshold("otsu", stats -> otsuLevel(stats.histogram()));
+    }
+
+    public static Operation histThreshold() {
+        return threshold("histThreshold", stats -> histLevel(stats.histogram()));
+    }
+
+    public static Operation gradThreshold() {
+        return threshold("gradThreshold", Operation.Stats::gradientThreshold);
+    }
+
+    /**
+     * Local threshold of Bradley and Roth: white where a pixel is more than percent darker
+     * than the mean of the window within radius, see {@link LocalThreshold}.
+     */
+    public static Operation bradleyThreshold(int radius, double percent) {
+        return local("bradley:" + radius + ":" + percent, new LocalThreshold(LocalThreshold.Method.BRADLEY, radius, percent));
+    }
+
+    /**
+     * Local threshold of Sauvola with deviation weight k, see {@link LocalThreshold}.
+     */
+    public static Operation sauvolaThreshold(int radius, double k) {
+        return local("sauvola:" + radius + ":" + k, new LocalThreshold(LocalThreshold.Method.SAUVOLA, radius, k));
+    }
+
+    /**
+     * Levels used by otsuThreshold(), histThreshold() and gradThreshold(), for building a
+     * {@link BinaryImage} with the same result instead of a full ARGB image.
+     */
+    public static int otsuLevel(ArgbRaster src, ForkJoinPool pool) {
+        return otsuLevel(src.histogram(pool));
+    }
+
+    public static int histLevel(ArgbRaster src, ForkJoinPool pool) {
+        return histLevel(src.histogram(pool));
+    }
+
+    public static int gradLevel(ArgbRaster src, ForkJoinPool pool) {
+        return Filters.findBrightnessGradientThreshold(src, pool);
+    }
+
+    public static Operation bitSlice(int d) {
+        return banded("bitSlice:" + d, 0, (src, dst, pool, progress) -> Filters.bitSlice(src, dst, d));
+    }
+
+    public static Operation equalize() {
+        return new Operation("equalize", 0, stats -> {
+            int[] lut = Filters.equalizeLut(stats.histogram());
+            return (src, dst, pool, progress) -> Filters.equalize(src, dst, lut);
+        });
+    }
+
+    public static Operation clahe() {
+        return clahe(8, 2.0);
+    }
+
+    /**
+     * Adaptive equalization, see {@link Clahe}. Tiles are cut across the whole image,
+     * so it does not run in bands.
+     */
+    public static Operation clahe(int tiles, double clipLimit) {
+        Clahe clahe = new Clahe(tiles, clipLimit);
+        return new Operation("clahe:" + tiles + ":" + clipLimit, clahe::apply);
+    }
+
+    public static Operation noise(float percent) {
+        return new Operation("noise:" + percent, 0,
+                stats -> (src, dst, pool, progress) -> Filters.noise(src, dst, percent, new Random()), false);
+    }
+
+    public static Operation pseudoColors(long seed) {
+        return banded("pseudoColors:" + seed, 0, (src, dst, pool, progress) -> {
+            Random rnd = new Random();
+            rnd.setSeed(seed);
+            Filters.pseudoColors(src, dst, rnd.nextInt());
+        });
+    }
+
+    public static Operation horizonalWave(double nWaves, double percent, double offset, int bg) {
+        return horizonalWave(nWaves, percent, offset, bg, Warp.Sampling.NEAREST);
+    }
+
+    public static Operation horizonalWave(double nWaves, double percent, double offset, int bg, Warp.Sampling sampling) {
+        return warp("horizonalWave:" + nWaves + ":" + percent + ":" + offset + ":" + bg,
+                Warp.horizonalWave(nWaves, percent, offset, sampling), bg, sampling);
+    }
+
+    public static Operation ripple(double nWaves, double percent, double offset, int bg) {
+        return ripple(nWaves, percent, offset, bg, Warp.Sampling.NEAREST);
+    }
+
+    public static Operation ripple(double nWaves, double percent, double offset, int bg, Warp.Sampling sampling) {
+        return warp("ripple:" + nWaves + ":" + percent + ":" + offset + ":" + bg,
+                Warp.ripple(nWaves, percent, offset, sampling), bg, sampling);
+    }
+
+    public static Operation transparency(int percent) {
+        return banded("transparency:" + percent, 0, (src, dst, pool, progress) -> Filters.transparency(src, dst, percent));
+    }
+
+    public static Operation makeTransparent(int r, int g, int b, double percent) {
+        double range = percent * 1.28;
+        return banded("makeTransparent:" + r + ":" + g + ":" + b + ":" + percent, 0,
+                (src, dst, pool, progress) -> Filters.makeTransparent(src, dst,
+                        (int) (r - range), (int) (r + range),
+                        (int) (g - range), (int) (g + range),
+                        (int) (b - range), (int) (b + range)));
+    }
+
+    public static Operation lineArt(int intensity) {
+        return banded("lineArt:" + intensity, 1, (src, dst, pool, progress) ->
+                RowBands.run(pool, src.height, progress, (y0, y1) -> Filters.lineArt(src, dst, intensity, false, y0, y1)));
+    }
+
+    public static Operation graylineArt(int intensity) {
+        return banded("graylineArt:" + intensity, 1, (src, dst, pool, progress) ->
+                RowBands.run(pool, src.height, progress, (y0, y1) -> Filters.lineArt(src, dst, intensity, true, y0, y1)));
+    }
+
+    public static Operation emboss(double angle, double power, int red, int green, int blue) {
+        return emboss("emboss", angle, power, red, green, blue, false);
+    }
+
+    public static Operation grayemboss(double angle, double power, int red, int green, int blue) {
+        return emboss("grayemboss", angle, power, red, green, blue, true);
+    }
+
+    public static Operation zoom(int percent) {
+        return zoom(percent, Warp.Sampling.NEAREST);
+    }
+
+    public static Operation zoom(int percent, Warp.Sampling sampling) {
+        return warp("zoom:" + percent, Warp.zoom(percent, sampling), 0, sampling);
+    }
+
+    /**
+     * Parses a single spec such as "brightness:120".
+     *
+     * @throws IllegalArgumentException for unknown names or bad parameters
+     */
+    public static Operation parse(String spec) {
+        String[] p = spec.trim().split(":");
+        try {
+            switch (p[0]) {
+                case "copy":
+                    return copy();
+                case "invert":
+                    return invert();
+                case "addConst":
+                    return addConst(Integer.parseInt(p[1]));
+                case "substractConst":
+                    return substractConst(Integer.parseInt(p[1]));
+                case "log":
+                    return log();
+                case "pow":
+                    return pow(Integer.parseInt(p[1]));
+                case "gray":
+                    return gray();
+                case "brightness":
+                    return brightness(Integer.parseInt(p[1]));
+                case "linearContrast":
+                    return linearContrast();
+                case "otsu":
+                    return otsuThreshold();
+                case "histThreshold":
+                    return histThreshold();
+                case "gradThreshold":
+                    return gradThreshold();
+                case "bradley":
+                    return bradleyThreshold(p.length > 1 ? Integer.parseInt(p[1]) : 25, p.length > 2 ? Double.parseDouble(p[2]) : 15);
+                case "sauvola":
+                    return sauvolaThreshold(p.length > 1 ? Integer.parseInt(p[1]) : 25, p.length > 2 ? Double.parseDouble(p[2]) : 0.34);
+                case "bitSlice":
+                    return bitSlice(Integer.parseInt(p[1]));
+                case "equalize":
+                    return equalize();
+                case "clahe":
+                    return clahe(p.length > 1 ? Integer.parseInt(p[1]) : 8, p.length > 2 ? Double.parseDouble(p[2]) : 2.0);
+                case "noise":
+                    return noise(Float.parseFloat(p[1]));
+                case "pseudoColors":
+                    return pseudoColors(Long.parseLong(p[1]));
+                case "horizonalWave":
+                    return horizonalWave(Double.parseDouble(p[1]), Double.parseDouble(p[2]), Double.parseDouble(p[3]),
+                            p.length > 4 ? Integer.parseInt(p[4]) : 0xff000000, sampling(p, 5, spec));
+                case "ripple":
+                    return ripple(Double.parseDouble(p[1]), Double.parseDouble(p[2]), Double.parseDouble(p[3]),
+                            p.length > 4 ? Integer.parseInt(p[4]) : 0xff000000, sampling(p, 5, spec));
+                case "transparency":
+                    return transparency(Integer.parseInt(p[1]));
+                case "makeTransparent":
+                    return makeTransparent(Integer.parseInt(p[1]), Integer.parseInt(p[2]), Integer.parseInt(p[3]),
+                            Double.parseDouble(p[4]));
+                case "lineArt":
+                    return lineArt(Integer.parseInt(p[1]));
+                case "graylineArt":
+                    return graylineArt(Integer.parseInt(p[1]));
+                case "emboss":
+                    return emboss(Double.parseDouble(p[1]), Double.parseDouble(p[2]),
+                            Integer.parseInt(p[3]), Integer.parseInt(p[4]), Integer.parseInt(p[5]));
+                case "grayemboss":
+                    return grayemboss(Double.parseDouble(p[1]), Double.parseDouble(p[2]),
+                            Integer.parseInt(p[3]), Integer.parseInt(p[4]), Integer.parseInt(p[5]));
+                case "zoom":
+                    return zoom(Integer.parseInt(p[1]), sampling(p, 2, spec));
+                default:
+                    throw new IllegalArgumentException("Unknown operation: " + p[0]);
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            throw new IllegalArgumentException("Bad parameters for operation: " + spec, e);
+        }
+    }
+
+    /**
+     * Parses a comma separated list such as "gray,linearContrast,otsu".
+     */
+    public static List<Operation> parseList(String specs) {
+        List<Operation> ops = new ArrayList<>();
+        for (String spec : specs.split(",")) {
+            if (!spec.trim().isEmpty()) {
+                ops.add(parse(spec));
+            }
+        }
+        return ops;
+    }
+
+    /**
+     * Optional trailing "nearest" or "bilinear" of a warp spec.
+     */
+    private static Warp.Sampling sampling(String[] p, int index, String spec) {
+        if (p.length <= index) {
+            return Warp.Sampling.NEAREST;
+        }
+        switch (p[index]) {
+            case "nearest":
+                return Warp.Sampling.NEAREST;
+            case "bilinear":
+                return Warp.Sampling.BILINEAR;
+            default:
+                throw new IllegalArgumentException("Bad sampling in " + spec + ", use nearest or bilinear");
+        }
+    }
+
+    private static int otsuLevel(Histogram h) {
+        return new OtsuProcessor().doThreshold(h.bins(Histogram.AVERAGE));
+    }
+
+    private static int histLevel(Histogram h) {
+        return IterativeThreshold.of(h.bins(Histogram.AVERAGE)).threshold;
+    }
+
+    /**
+     * Operation whose kernel needs nothing but the rows around the ones it writes.
+     */
+    private static Operation banded(String spec, int halo, Operation.Kernel kernel) {
+        return new Operation(spec, halo, stats -> kernel);
+    }
+
+    private static Operation point(String spec, Function<Operation.Stats, PointChain> chainFor) {
+        return new Operation(spec, 0, stats -> {
+            PointChain chain = chainFor.apply(stats);
+            return (src, dst, pool, progress) -> {
+                int w = src.width;
+                RowBands.run(pool, src.height, progress, (y0, y1) -> chain.apply(src, dst, y0 * w, y1 * w));
+            };
+        });
+    }
+
+    private static Operation threshold(String spec, ToIntFunction<Operation.Stats> find) {
+        return new Operation(spec, 0, stats -> {
+            int t = find.applyAsInt(stats);
+            return (src, dst, pool, progress) ->
+                    RowBands.run(pool, src.height, progress, (y0, y1) -> Filters.threshold(src, dst, t, y0, y1));
+        });
+    }
+
+    /**
+     * Local threshold; a band only needs radius rows around it.
+     */
+    private static Operation local(String spec, LocalThreshold threshold) {
+        return banded(spec, threshold.radius, threshold::apply);
+    }
+
+    /**
+     * Geometric operation; a bilinear one says so at the end of its spec.
+     */
+    private static Operation warp(String spec, Warp warp, int bg, Warp.Sampling sampling) {
+        return new Operation(sampling == Warp.Sampling.BILINEAR ? spec + ":bilinear" : spec,
+                (src, dst, pool, progress) -> warp.apply(src, dst, bg, pool, progress));
+    }
+
+    private static Operation emboss(String name, double angle, double power, int red, int green, int blue, boolean gray) {
+        // The light offset reaches one row up or down and may wrap two pixels into the next row
+        return banded(name + ":" + angle + ":" + power + ":" + red + ":" + green + ":" + blue, 2,
+                (src, dst, pool, progress) -> RowBands.run(pool, src.height, progress,
+                        (y0, y1) -> Filters.emboss(src, dst, angle, power, red, green, blue, gray, y0, y1)));
+    }
+}
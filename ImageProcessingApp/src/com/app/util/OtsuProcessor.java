@@ -1,55 +1,70 @@
 package com.app.util;
 
 public class OtsuProcessor {
-    private int histData[];
-    private int maxLevelValue;
+    private long histData[];
+    private long maxLevelValue;
     private int threshold;
 
     public OtsuProcessor() {
-        histData = new int[256];
+        histData = new long[256];
     }
 
+    /**
+     * Otsu threshold of a luminance plane (one byte per pixel).
+     * When monoData is not null it receives the binarized plane.
+     */
     public int doThreshold(byte[] srcData, byte[] monoData) {
         int ptr;
         ptr = 0;
         while (ptr < histData.length) histData[ptr++] = 0;
         ptr = 0;
-        maxLevelValue = 0;
         while (ptr < srcData.length) {
-            int h = 0xFF & srcData[ptr];
-            histData[h]++;
-            if (histData[h] > maxLevelValue) maxLevelValue = histData[h];
+            histData[0xFF & srcData[ptr]]++;
             ptr++;
         }
-        int total = srcData.length;
-        float sum = 0;
-        for (int t = 0; t < 256; t++) sum += t * histData[t];
-        float sumB = 0;
-        int wB = 0;
-        int wF = 0;
-        float varMax = 0;
+        doThreshold(histData);
+        if (monoData != null) {
+            ptr = 0;
+            while (ptr < srcData.length) {
+                monoData[ptr] = ((0xFF & srcData[ptr]) >= threshold) ? (byte) 255 : 0;
+                ptr++;
+            }
+        }
+        return threshold;
+    }
+
+    /**
+     * Otsu threshold of a 256-bin histogram. Costs O(256) regardless of the image size,
+     * so it can run on a histogram that has already been computed.
+     */
+    public int doThreshold(long[] hist) {
+        long total = 0;
+        long sum = 0;
+        maxLevelValue = 0;
+        for (int t = 0; t < 256; t++) {
+            total += hist[t];
+            sum += t * hist[t];
+            if (hist[t] > maxLevelValue) maxLevelValue = hist[t];
+        }
+        long sumB = 0;
+        long wB = 0;
+        long wF = 0;
+        double varMax = 0;
         threshold = 0;
         for (int t = 0; t < 256; t++) {
-            wB += histData[t];
+            wB += hist[t];
             if (wB == 0) continue;
             wF = total - wB;
             if (wF == 0) break;
-            sumB += (float) (t * histData[t]);
-            float mB = sumB / wB;
-            float mF = (sum - sumB) / wF;
-            float varBetween = (float) wB * (float) wF * (mB - mF) * (mB - mF);
+            sumB += (long) t * hist[t];
+            double mB = (double) sumB / wB;
+            double mF = (double) (sum - sumB) / wF;
+            double varBetween = (double) wB * (double) wF * (mB - mF) * (mB - mF);
             if (varBetween > varMax) {
                 varMax = varBetween;
                 threshold = t;
             }
         }
-        if (monoData != null) {
-            ptr = 0;
-            while (ptr < srcData.length) {
-                monoData[ptr] = ((0xFF & srcData[ptr]) >= threshold) ? (byte) 255 : 0;
-                ptr++;
-            }
-        }
         return threshold;
     }
 }
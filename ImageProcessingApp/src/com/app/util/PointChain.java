@@ -0,0 +1,105 @@
+package com.app.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ordered chain of point operations applied to an image in one pass.
+ * <p>
+ * Consecutive table ops are composed into a single {@link Lut}. Gray mixes the three
+ * channels, so it cannot be folded into a per-channel table; it starts a new stage instead.
+ * A chain such as gray, pow, brightness, invert is therefore one stage: a gray conversion
+ * followed by one table lookup per channel.
+ */
+public class PointChain {
+
+    private static class Stage {
+        final boolean gray;
+        Lut lut;
+
+        Stage(boolean gray, Lut lut) {
+            this.gray = gray;
+            this.lut = lut;
+        }
+    }
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    public PointChain gray() {
+        stages.add(new Stage(true, Lut.identity()));
+        return this;
+    }
+
+    public PointChain then(Lut lut) {
+        if (stages.isEmpty()) {
+            stages.add(new Stage(false, lut));
+        } else {
+            Stage last = stages.get(stages.size() - 1);
+            last.lut = last.lut.then(lut);
+        }
+        return this;
+    }
+
+    public int stageCount() {
+        return stages.size();
+    }
+
+    public void apply(ArgbRaster src, ArgbRaster dst) {
+        apply(src, dst, 0, src.size());
+    }
+
+    /**
+     * Applies the chain to pixel indices [from, to).
+     */
+    public void apply(ArgbRaster src, ArgbRaster dst, int from, int to) {
+        if (stages.isEmpty()) {
+            System.arraycopy(src.pixels, from, dst.pixels, from, to - from);
+        } else if (stages.size() == 1) {
+            applyStage(stages.get(0), src.pixels, dst.pixels, from, to);
+        } else {
+            int[] in = src.pixels;
+            int[] out = dst.pixels;
+            for (int i = from; i < to; i++) {
+                int rgb = in[i];
+                for (Stage stage : stages) {
+                    rgb = applyStage(stage, rgb);
+                }
+                out[i] = rgb;
+            }
+        }
+    }
+
+    private static void applyStage(Stage stage, int[] in, int[] out, int from, int to) {
+        Simd.Kernels simd = Simd.kernels();
+        if (simd != null && stage.lut.scalePercent >= 0) {
+            simd.scale(in, out, from, to, stage.lut.scalePercent, stage.gray);
+            return;
+        } else if (simd != null && stage.lut.inverts && !stage.gray) {
+            simd.invert(in, out, from, to);
+            return;
+        }
+        int[] r = stage.lut.r;
+        int[] g = stage.lut.g;
+        int[] b = stage.lut.b;
+        if (stage.gray) {
+            for (int i = from; i < to; i++) {
+                int rgb = in[i];
+                int v = Filters.luma(rgb);
+                out[i] = (rgb & 0xff000000) | (r[v] << 16) | (g[v] << 8) | b[v];
+            }
+        } else {
+            for (int i = from; i < to; i++) {
+                int rgb = in[i];
+                out[i] = (rgb & 0xff000000) | (r[(rgb >> 16) & 0xff] << 16) | (g[(rgb >> 8) & 0xff] << 8) | b[rgb & 0xff];
+            }
+        }
+    }
+
+    private static int applyStage(Stage stage, int rgb) {
+        if (stage.gray) {
+            int v = Filters.luma(rgb);
+            rgb = (rgb & 0xff000000) | (v << 16) | (v << 8) | v;
+        }
+        return stage.lut.apply(rgb);
+    }
+}
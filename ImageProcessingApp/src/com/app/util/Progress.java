@@ -0,0 +1,44 @@
+package com.app.util;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Progress and cooperative cancellation of one filter run.
+ * <p>
+ * {@link RowBands} reports every finished band and checks for cancellation before starting
+ * the next one, throwing CancellationException, so a cancelled run stops within one band.
+ * Subclasses decide where cancellation comes from and where progress goes.
+ */
+public class Progress {
+    public static final Progress NONE = new Progress();
+
+    private final AtomicLong done = new AtomicLong();
+    private volatile long total;
+
+    public boolean isCancelled() {
+        return false;
+    }
+
+    /**
+     * Called from the filter threads with the rows done so far.
+     */
+    protected void update(long done, long total) {
+    }
+
+    public final void checkCancelled() {
+        if (isCancelled()) {
+            throw new CancellationException();
+        }
+    }
+
+    public final void begin(long total) {
+        this.total = total;
+        done.set(0);
+        update(0, total);
+    }
+
+    public final void advance(long n) {
+        update(done.addAndGet(n), total);
+    }
+}
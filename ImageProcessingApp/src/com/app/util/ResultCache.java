@@ -0,0 +1,139 @@
+package com.app.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Results of operations keyed by source fingerprint and operation spec, evicted least
+ * recently used first once the cached pixels go over a byte budget.
+ * <p>
+ * Cached rasters are shared, so callers must treat them as read-only. Operations that are
+ * not {@link Operation#isRepeatable() repeatable} are never cached. All methods are
+ * synchronized, so one cache can be shared by the UI and any number of workers; results
+ * are computed outside the lock.
+ */
+public final class ResultCache {
+
+    private static final class Key {
+        final long fingerprint;
+        final int width;
+        final int height;
+        final String spec;
+
+        Key(ArgbRaster source, Operation op) {
+            this.fingerprint = source.fingerprint();
+            this.width = source.width;
+            this.height = source.height;
+            this.spec = op.spec();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return fingerprint == k.fingerprint && width == k.width && height == k.height && spec.equals(k.spec);
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(fingerprint) * 31 + spec.hashCode();
+        }
+    }
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, ArgbRaster> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    /**
+     * @param maxBytes most pixel bytes to keep, 4 per pixel
+     */
+    public ResultCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Cached result of op on source, or null. Counts a hit or a miss.
+     */
+    public ArgbRaster get(ArgbRaster source, Operation op) {
+        if (!op.isRepeatable()) {
+            return null;
+        }
+        Key key = new Key(source, op);
+        synchronized (this) {
+            ArgbRaster result = entries.get(key);
+            if (result != null) {
+                hits++;
+            } else {
+                misses++;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Stores the result of op on source, evicting old entries to stay within the budget.
+     * A result larger than the whole budget is not stored.
+     */
+    public void put(ArgbRaster source, Operation op, ArgbRaster result) {
+        long size = sizeOf(result);
+        if (!op.isRepeatable() || size > maxBytes) {
+            return;
+        }
+        Key key = new Key(source, op);
+        synchronized (this) {
+            ArgbRaster old = entries.put(key, result);
+            if (old != null) {
+                bytes -= sizeOf(old);
+            }
+            bytes += size;
+            Iterator<Map.Entry<Key, ArgbRaster>> it = entries.entrySet().iterator();
+            while (bytes > maxBytes && it.hasNext()) {
+                ArgbRaster evicted = it.next().getValue();
+                it.remove();
+                bytes -= sizeOf(evicted);
+                evictions++;
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    public synchronized long hits() {
+        return hits;
+    }
+
+    public synchronized long misses() {
+        return misses;
+    }
+
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return entries.size() + " results, " + (bytes >> 20) + " of " + (maxBytes >> 20) + " MB, "
+                + hits + " hits, " + misses + " misses, " + evictions + " evictions";
+    }
+
+    private static long sizeOf(ArgbRaster raster) {
+        return (long) raster.size() * 4;
+    }
+}
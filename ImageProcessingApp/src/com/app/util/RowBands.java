@@ -0,0 +1,91 @@
+package com.app.util;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an image into horizontal row bands and runs a kernel over them on a ForkJoinPool.
+ * <p>
+ * Kernels read from a source raster that is never written during the run and write only
+ * the rows of their own band, so neighborhood filters can read halo rows above and below
+ * the band straight from the source and the result is identical to the sequential run.
+ */
+public final class RowBands {
+
+    /**
+     * Smallest band worth handing to another thread.
+     */
+    static final int MIN_ROWS = 16;
+
+    public interface Task {
+        void run(int fromRow, int toRow);
+    }
+
+    private RowBands() {
+    }
+
+    /**
+     * Runs task over rows [0, height). A null pool runs it sequentially on the calling thread.
+     */
+    public static void run(ForkJoinPool pool, int height, Task task) {
+        run(pool, height, Progress.NONE, task);
+    }
+
+    /**
+     * Same as {@link #run(ForkJoinPool, int, Task)}, reporting finished rows to progress and
+     * throwing CancellationException before the next band once it is cancelled.
+     * Sequential runs are cut into bands too so they can report and stop.
+     */
+    public static void run(ForkJoinPool pool, int height, Progress progress, Task task) {
+        if (progress != Progress.NONE) {
+            progress.checkCancelled();
+            progress.begin(height);
+        }
+        if (pool == null || pool.getParallelism() < 2 || height < 2 * MIN_ROWS) {
+            if (progress == Progress.NONE) {
+                task.run(0, height);
+                return;
+            }
+            int grain = Math.max(MIN_ROWS, height / 64);
+            for (int y = 0; y < height; y += grain) {
+                progress.checkCancelled();
+                int to = Math.min(height, y + grain);
+                task.run(y, to);
+                progress.advance(to - y);
+            }
+            return;
+        }
+        int grain = Math.max(MIN_ROWS, height / (pool.getParallelism() * 4));
+        pool.invoke(new Band(task, progress, 0, height, grain));
+    }
+
+    private static class Band extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final Task task;
+        final Progress progress;
+        final int from;
+        final int to;
+        final int grain;
+
+        Band(Task task, Progress progress, int from, int to, int grain) {
+            this.task = task;
+            this.progress = progress;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= grain) {
+                progress.checkCancelled();
+                task.run(from, to);
+                progress.advance(to - from);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new Band(task, progress, from, mid, grain), new Band(task, progress, mid, to, grain));
+            }
+        }
+    }
+}
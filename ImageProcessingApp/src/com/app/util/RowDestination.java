@@ -0,0 +1,169 @@
+package com.app.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.metadata.IIOMetadata;
+
+import org.w3c.dom.Node;
+
+/**
+ * Full-size destination image for an ImageReader whose DataBuffer stores a single row.
+ * When the reader moves on to the next row the finished one is converted to ARGB and sent
+ * to a {@link ImageLoader.RowSink}; a reader that jumps between rows is stopped.
+ */
+final class RowDestination {
+
+    /**
+     * Thrown into the reader when it writes rows out of order.
+     */
+    static final class OutOfOrder extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        OutOfOrder(int row, int current) {
+            super("Row " + row + " written after row " + current);
+        }
+    }
+
+    final BufferedImage image;
+    int rowsSent;
+    private final int height;
+    private final int stride;
+    private final DataBuffer row;
+    private final BufferedImage rowImage;
+    private final ArgbRaster rowArgb;
+    private final ImageLoader.RowSink sink;
+    private int current = -1;
+    private int start;
+
+    private RowDestination(ImageTypeSpecifier type, SampleModel rowModel, int stride, int width, int height,
+                           ImageLoader.RowSink sink) {
+        ColorModel cm = type.getColorModel();
+        this.height = height;
+        this.stride = stride;
+        this.sink = sink;
+        this.row = rowModel.createDataBuffer();
+        this.rowImage = new BufferedImage(cm, Raster.createWritableRaster(rowModel, row, null),
+                cm.isAlphaPremultiplied(), null);
+        this.rowArgb = new ArgbRaster(width, 1);
+        this.start = -stride;
+        DataBuffer rows = new DataBuffer(row.getDataType(), stride * height) {
+            @Override
+            public int getElem(int bank, int i) {
+                return i >= start && i < start + stride ? row.getElem(i - start) : 0;
+            }
+
+            @Override
+            public void setElem(int bank, int i, int val) {
+                if (i < start || i >= start + stride) {
+                    moveTo(i / stride);
+                }
+                row.setElem(i - start, val);
+            }
+        };
+        this.image = new BufferedImage(cm,
+                Raster.createWritableRaster(rowModel.createCompatibleSampleModel(width, height), rows, null),
+                cm.isAlphaPremultiplied(), null);
+    }
+
+    /**
+     * Destination for the first image of reader, or null when its pixel layout cannot be
+     * addressed row by row within the int range of a DataBuffer, or the image is encoded
+     * in passes that each write every row.
+     */
+    static RowDestination of(ImageReader reader, int width, int height, ImageLoader.RowSink sink)
+            throws IOException {
+        if (isProgressiveJpeg(reader.getImageMetadata(0))) {
+            return null;
+        }
+        Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if (!types.hasNext()) {
+            return null;
+        }
+        ImageTypeSpecifier type = types.next();
+        SampleModel rowModel = type.getSampleModel(width, 1);
+        int stride = scanlineStride(rowModel);
+        if (stride <= 0 || (long) stride * height > Integer.MAX_VALUE
+                || rowModel.createDataBuffer().getNumBanks() != 1) {
+            return null;
+        }
+        return new RowDestination(type, rowModel, stride, width, height, sink);
+    }
+
+    /**
+     * Sends the last row once the reader is done.
+     */
+    void finish() throws IOException {
+        if (current >= 0) {
+            send();
+        }
+        if (rowsSent != height) {
+            throw new IIOException("Reader wrote " + rowsSent + " of " + height + " rows");
+        }
+    }
+
+    private void moveTo(int next) {
+        if (next != current + 1) {
+            throw new OutOfOrder(next, current);
+        }
+        if (current >= 0) {
+            send();
+        }
+        for (int i = 0, n = row.getSize(); i < n; i++) {
+            row.setElem(i, 0);
+        }
+        current = next;
+        start = next * stride;
+    }
+
+    private void send() {
+        AwtRasters.read(rowImage, rowArgb);
+        // Counted first, so a failing sink is not taken for a reader that cannot stream
+        rowsSent++;
+        sink.row(rowArgb.pixels, 0, current);
+    }
+
+    /**
+     * A progressive JPEG writes all rows coarsely and then refines them, so rows would be
+     * sent before they are done. The native metadata names the frame type in its SOF marker.
+     */
+    private static boolean isProgressiveJpeg(IIOMetadata metadata) {
+        String format = "javax_imageio_jpeg_image_1.0";
+        if (metadata == null || !format.equals(metadata.getNativeMetadataFormatName())) {
+            return false;
+        }
+        for (Node n = metadata.getAsTree(format).getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeName().equals("markerSequence")) {
+                for (Node m = n.getFirstChild(); m != null; m = m.getNextSibling()) {
+                    Node process = m.getAttributes().getNamedItem("process");
+                    if (m.getNodeName().equals("sof") && process != null && "2".equals(process.getNodeValue())) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private static int scanlineStride(SampleModel model) {
+        if (model instanceof ComponentSampleModel) {
+            return ((ComponentSampleModel) model).getScanlineStride();
+        } else if (model instanceof MultiPixelPackedSampleModel) {
+            return ((MultiPixelPackedSampleModel) model).getScanlineStride();
+        } else if (model instanceof SinglePixelPackedSampleModel) {
+            return ((SinglePixelPackedSampleModel) model).getScanlineStride();
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,150 @@
+package com.app.util;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Vector;
+
+/**
+ * Image for an ImageWriter whose pixels are not held in one array but copied out a few
+ * rows at a time, as packed ARGB or RGB ints, when the writer asks for them with
+ * {@link #getData(Rectangle)}. Only writers that pull rows that way can write it, see
+ * {@link ImageExport#canStream()}.
+ */
+abstract class RowImage implements RenderedImage {
+    final int width;
+    final int height;
+    final ColorModel colorModel;
+    final SampleModel sampleModel;
+
+    RowImage(int width, int height, boolean alpha) {
+        this.width = width;
+        this.height = height;
+        this.colorModel = alpha ? ColorModel.getRGBdefault() : new DirectColorModel(24, 0xFF0000, 0xFF00, 0xFF);
+        this.sampleModel = colorModel.createCompatibleSampleModel(width, height);
+    }
+
+    /**
+     * Copies the ARGB pixels of r, which lies inside the image, row by row into data.
+     */
+    abstract void copyRows(Rectangle r, int[] data);
+
+    @Override
+    public Raster getData(Rectangle rect) {
+        Rectangle r = rect.intersection(new Rectangle(0, 0, width, height));
+        int[] data = new int[r.width * r.height];
+        copyRows(r, data);
+        DirectColorModel cm = (DirectColorModel) colorModel;
+        int[] masks = cm.hasAlpha()
+                ? new int[] {cm.getRedMask(), cm.getGreenMask(), cm.getBlueMask(), cm.getAlphaMask()}
+                : new int[] {cm.getRedMask(), cm.getGreenMask(), cm.getBlueMask()};
+        return Raster.createPackedRaster(new DataBufferInt(data, data.length), r.width, r.height, r.width,
+                masks, new Point(r.x, r.y));
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, width, height));
+    }
+
+    @Override
+    public Raster getTile(int tileX, int tileY) {
+        return getData();
+    }
+
+    @Override
+    public WritableRaster copyData(WritableRaster raster) {
+        throw new UnsupportedOperationException("Rows are copied out on demand");
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(String name) {
+        return java.awt.Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return width;
+    }
+
+    @Override
+    public int getTileHeight() {
+        return height;
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
@@ -0,0 +1,82 @@
+package com.app.util;
+
+/**
+ * Optional SIMD backend for the point kernels that are plain integer arithmetic per
+ * channel: gray conversion, scaling by a percentage (brightness), invert, threshold and
+ * transparency.
+ * <p>
+ * The kernels use the incubating Java Vector API. They live in the separate src-vector
+ * source folder, so the rest compiles without the incubator module, and are only loaded
+ * when their classes are on the class path and the JVM runs with --add-modules
+ * jdk.incubator.vector; otherwise, or with -Dimageapp.simd=false, the scalar loops run. Both give the same pixels. Table lookups of composed
+ * {@link PointChain} stages stay scalar, since the Vector API of JDK 17 cannot gather
+ * from a table by lane values.
+ */
+public final class Simd {
+
+    /**
+     * Kernels over pixel indices [from, to) of int rasters.
+     */
+    interface Kernels {
+        /**
+         * min(255, c * percent / 100) of every channel c, or of the gray value when gray;
+         * percent is in [0, {@link #MAX_PERCENT}]. Alpha is kept.
+         */
+        void scale(int[] in, int[] out, int from, int to, int percent, boolean gray);
+
+        void invert(int[] in, int[] out, int from, int to);
+
+        void threshold(int[] in, int[] out, int from, int to, int t);
+
+        /**
+         * min(255, alpha * percent / 100); percent is in [0, {@link #MAX_PERCENT}].
+         */
+        void transparency(int[] in, int[] out, int from, int to, int percent);
+    }
+
+    /**
+     * Largest percentage whose products with 255 the kernels divide by 100 exactly.
+     */
+    static final int MAX_PERCENT = 171;
+
+    private static final Kernels VECTOR = load();
+    private static volatile boolean enabled = VECTOR != null && Boolean.parseBoolean(
+            System.getProperty("imageapp.simd", "true"));
+
+    private Simd() {
+    }
+
+    /**
+     * True when the Vector API kernels could be loaded.
+     */
+    public static boolean isAvailable() {
+        return VECTOR != null;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Switches between the vector and the scalar kernels, e.g. to compare them.
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on && VECTOR != null;
+    }
+
+    /**
+     * The vector kernels, or null when the scalar loops should run.
+     */
+    static Kernels kernels() {
+        return enabled ? VECTOR : null;
+    }
+
+    private static Kernels load() {
+        try {
+            // Loaded by name: linking it fails when the incubator module is not in the boot layer
+            return (Kernels) Class.forName("com.app.util.VectorKernels").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
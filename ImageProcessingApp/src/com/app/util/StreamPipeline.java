@@ -0,0 +1,314 @@
+package com.app.util;
+
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Runs a chain of operations from an image file to another one row by row, so memory does
+ * not grow with the height of the image.
+ * <p>
+ * A reader thread decodes rows with {@link ImageLoader#readRows} and pushes them through
+ * one stage per operation. A stage collects a strip of rows plus the {@link Operation#halo()}
+ * rows its kernel reads above and below, runs the kernel on the strip and passes the rows
+ * on, keeping the last halo rows for the next strip. Finished strips go through a short
+ * queue to the ImageWriter, which pulls them in order on the calling thread.
+ * <p>
+ * Only operations that are {@link Operation#isBanded() banded} and need no statistics of
+ * the whole image can stream, and only writers that pull rows in order, see
+ * {@link ImageExport#canStream()}. Needs no JavaFX classes.
+ */
+public final class StreamPipeline {
+
+    /**
+     * Pixels per strip handed to a kernel, enough to split over the pool.
+     */
+    private static final int STRIP_PIXELS = 1 << 20;
+
+    /**
+     * Statistics a streamed operation cannot have; asking for them rejects the operation.
+     */
+    private static final Operation.Stats NO_STATS = new Operation.Stats() {
+        @Override
+        public Histogram histogram() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int maxGray() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int gradientThreshold() {
+            throw new UnsupportedOperationException();
+        }
+    };
+
+    /**
+     * Queued after the last strip, or after the reader failed.
+     */
+    private static final int[] END = new int[0];
+
+    private final List<Operation> ops;
+    private final List<Operation.Kernel> kernels = new ArrayList<>();
+
+    /**
+     * @throws IllegalArgumentException when one of ops cannot stream
+     */
+    public StreamPipeline(List<Operation> ops) {
+        this.ops = ops;
+        for (Operation op : ops) {
+            if (!op.isBanded()) {
+                throw new IllegalArgumentException(op + " needs the whole image and cannot stream");
+            }
+            try {
+                kernels.add(op.prepare(NO_STATS));
+            } catch (UnsupportedOperationException e) {
+                throw new IllegalArgumentException(op + " needs statistics of the whole image and cannot stream");
+            }
+        }
+    }
+
+    /**
+     * Reads the image of loader, runs the operations on it and writes it to file with export,
+     * replacing the file. On failure or cancellation the partial file is deleted.
+     *
+     * @throws IllegalArgumentException when export cannot stream
+     */
+    public void run(ImageLoader loader, ImageExport export, File file, ForkJoinPool pool, Progress progress)
+            throws IOException {
+        if (!export.canStream()) {
+            throw new IllegalArgumentException("Cannot stream to " + export.format());
+        }
+        int width = loader.width;
+        int height = loader.height;
+        int strip = Math.max(16, STRIP_PIXELS / width);
+        StreamedImage image = new StreamedImage(width, height, strip, export.keepsAlpha());
+
+        ImageLoader.RowSink sink = image.sink();
+        for (int i = kernels.size() - 1; i >= 0; i--) {
+            sink = new Stage(kernels.get(i), ops.get(i).halo(), width, height, strip, pool, sink);
+        }
+        ImageLoader.RowSink first = sink;
+        // Progress goes to the writer; the reader only stops when the run is cancelled or
+        // the writer has stopped reading strips
+        Progress reading = new Progress() {
+            @Override
+            public boolean isCancelled() {
+                return image.stopped || progress.isCancelled();
+            }
+        };
+        Thread reader = new Thread(() -> {
+            try {
+                loader.readRows(first, reading);
+            } catch (Throwable e) {
+                image.failure = e;
+            }
+            image.end();
+        }, "stream-read");
+        reader.setDaemon(true);
+        reader.start();
+
+        boolean done = false;
+        try {
+            export.write(image, file, progress);
+            done = true;
+        } catch (IOException | RuntimeException e) {
+            Throwable cause = image.failure;
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        } finally {
+            image.stop();
+            reader.interrupt();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (!done) {
+                file.delete();
+            }
+        }
+    }
+
+    /**
+     * Runs one kernel on strips of the rows it receives and sends the finished rows on.
+     */
+    private static final class Stage implements ImageLoader.RowSink {
+        final Operation.Kernel kernel;
+        final int halo;
+        final int width;
+        final int height;
+        final int strip;
+        final ForkJoinPool pool;
+        final ImageLoader.RowSink next;
+        final int[] in;
+        final int[] out;
+        int top;
+        int rows;
+        int nextOut;
+
+        Stage(Operation.Kernel kernel, int halo, int width, int height, int strip, ForkJoinPool pool,
+                ImageLoader.RowSink next) {
+            this.kernel = kernel;
+            this.halo = halo;
+            this.width = width;
+            this.height = height;
+            this.strip = strip;
+            this.pool = pool;
+            this.next = next;
+            this.in = new int[(strip + 2 * halo) * width];
+            this.out = new int[in.length];
+        }
+
+        @Override
+        public void row(int[] argb, int offset, int y) {
+            System.arraycopy(argb, offset, in, (y - top) * width, width);
+            rows = y - top + 1;
+            if (y == height - 1 || y == nextOut + strip - 1 + halo) {
+                flush(y == height - 1 ? height : nextOut + strip);
+            }
+        }
+
+        /**
+         * Runs the kernel on the rows held and sends rows [nextOut, end).
+         */
+        private void flush(int end) {
+            // Kernels may leave pixels unwritten, as they would be in a new raster
+            Arrays.fill(out, 0, rows * width, 0);
+            kernel.apply(new ArgbRaster(width, rows, in), new ArgbRaster(width, rows, out), pool, Progress.NONE);
+            for (int y = nextOut; y < end; y++) {
+                next.row(out, (y - top) * width, y);
+            }
+            nextOut = end;
+            int keep = Math.max(top, nextOut - halo);
+            int kept = top + rows - keep;
+            System.arraycopy(in, (keep - top) * width, in, 0, kept * width);
+            top = keep;
+            rows = kept;
+        }
+    }
+
+    /**
+     * Image for an ImageWriter whose rows arrive in strips from the reader thread. Rows
+     * must be asked for in order; rows above the current strip are gone.
+     */
+    private static final class StreamedImage extends RowImage {
+        final int strip;
+        final BlockingQueue<int[]> strips = new ArrayBlockingQueue<>(2);
+        volatile Throwable failure;
+        /**
+         * Set once the writer no longer takes strips.
+         */
+        volatile boolean stopped;
+        int[] current;
+        int currentTop;
+        int currentRows;
+        int nextTop;
+
+        StreamedImage(int width, int height, int strip, boolean alpha) {
+            super(width, height, alpha);
+            this.strip = strip;
+        }
+
+        /**
+         * Sink collecting rows into strips for the queue; runs on the reader thread.
+         */
+        ImageLoader.RowSink sink() {
+            return new ImageLoader.RowSink() {
+                int[] pixels;
+                int top;
+
+                @Override
+                public void row(int[] argb, int offset, int y) {
+                    if (pixels == null) {
+                        top = y;
+                        pixels = new int[Math.min(strip, height - y) * width];
+                    }
+                    System.arraycopy(argb, offset, pixels, (y - top) * width, width);
+                    if (y - top + 1 == pixels.length / width) {
+                        if (stopped) {
+                            throw new CancellationException();
+                        }
+                        try {
+                            strips.put(pixels);
+                        } catch (InterruptedException e) {
+                            throw new CancellationException();
+                        }
+                        pixels = null;
+                    }
+                }
+            };
+        }
+
+        /**
+         * Queues END after the last strip; called on the reader thread.
+         */
+        void end() {
+            if (stopped) {
+                // Nobody takes strips any more, so the queue may stay full
+                strips.clear();
+                strips.offer(END);
+                return;
+            }
+            try {
+                strips.put(END);
+            } catch (InterruptedException e) {
+                // The writer has stopped and no longer reads the queue
+            }
+        }
+
+        /**
+         * Tells the reader thread that the writer is done, before it is interrupted. A reader
+         * whose interrupt was already used up then does not block on the full queue.
+         */
+        void stop() {
+            stopped = true;
+            strips.clear();
+        }
+
+        @Override
+        void copyRows(Rectangle r, int[] data) {
+            if (r.y < currentTop) {
+                throw new IllegalStateException("Row " + r.y + " was already written");
+            }
+            for (int y = r.y; y < r.y + r.height; y++) {
+                while (y >= currentTop + currentRows) {
+                    nextStrip();
+                }
+                System.arraycopy(current, (y - currentTop) * width + r.x, data, (y - r.y) * r.width, r.width);
+            }
+        }
+
+        private void nextStrip() {
+            int[] pixels;
+            try {
+                pixels = strips.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CancellationException();
+            }
+            if (pixels == END) {
+                throw new IllegalStateException("Reading stopped at row " + nextTop, failure);
+            }
+            current = pixels;
+            currentTop = nextTop;
+            currentRows = pixels.length / width;
+            nextTop += currentRows;
+        }
+    }
+}